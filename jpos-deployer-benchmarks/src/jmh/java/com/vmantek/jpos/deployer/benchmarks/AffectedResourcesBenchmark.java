@@ -0,0 +1,134 @@
+package com.vmantek.jpos.deployer.benchmarks;
+
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.MapDifference;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multimap;
+import com.google.common.collect.Multimaps;
+import com.google.common.collect.TreeMultimap;
+import com.vmantek.jpos.deployer.MapPropertyResolver;
+import com.vmantek.jpos.deployer.spi.PropertyResolver;
+import com.vmantek.jpos.deployer.support.ResourceKeyIndex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Finding the resources to redeploy after a configuration change: the original scan of
+ * every resource per changed key as the baseline, the deployer's {@link ResourceKeyIndex},
+ * and a key to resources multimap inverted once up front.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class AffectedResourcesBenchmark
+{
+    private static final int KEYS_PER_RESOURCE = 5;
+    private static final int CHANGED_KEYS = 10;
+
+    @Param({"10", "1000", "100000"})
+    public int resources;
+
+    private final PropertyResolver resolver = new MapPropertyResolver(new HashMap<>());
+    private final ResourceKeyIndex index = new ResourceKeyIndex();
+    private final Multimap<String, String> multimap = TreeMultimap.create();
+    private Multimap<String, String> inverted;
+    private final Map<String, String> oldConfig = new HashMap<>();
+    private final Map<String, String> newConfig = new HashMap<>();
+    private final List<String> changed = new ArrayList<>();
+
+    @Setup
+    public void setup()
+    {
+        final Random random = new Random(resources);
+        final int keys = Math.max(10, resources / 2);
+        for (int r = 0; r < resources; r++)
+        {
+            final String resource = "META-INF/q2-runtime/deploy/" + r + "_qbean.xml";
+            for (int k = 0; k < KEYS_PER_RESOURCE; k++)
+            {
+                final String key = "key." + random.nextInt(keys);
+                index.put(resource, key);
+                multimap.put(resource, key);
+            }
+        }
+        for (int k = 0; k < keys; k++)
+        {
+            oldConfig.put("key." + k, "value-" + k);
+        }
+        newConfig.putAll(oldConfig);
+        for (int i = 0; i < CHANGED_KEYS; i++)
+        {
+            final String key = "key." + random.nextInt(keys);
+            changed.add(key);
+            newConfig.put(key, "changed-" + i);
+        }
+        inverted = Multimaps.invertFrom(multimap, HashMultimap.create());
+    }
+
+    /**
+     * The algorithm the deployer shipped with: diff the configurations, then go through
+     * every resource for each changed key.
+     */
+    @Benchmark
+    public Set<String> baseline()
+    {
+        Set<String> affectedResources = new HashSet<>();
+        MapDifference<String, String> md = Maps.difference(oldConfig, newConfig);
+        if (!md.areEqual())
+        {
+            Set<Map.Entry<String, Collection<String>>> entries = multimap.asMap().entrySet();
+            for (String property : md.entriesDiffering().keySet())
+            {
+                affectedResources.addAll(entries
+                                             .stream()
+                                             .filter(entry -> entry.getValue().contains(property))
+                                             .map(Map.Entry::getKey)
+                                             .collect(Collectors.toList()));
+            }
+        }
+        return affectedResources;
+    }
+
+    @Benchmark
+    public Set<String> index()
+    {
+        return resolver.calculateAffectedResources(changed, index);
+    }
+
+    @Benchmark
+    public Set<String> multimap()
+    {
+        Set<String> affectedResources = new HashSet<>();
+        for (String key : changed)
+        {
+            affectedResources.addAll(inverted.get(key));
+        }
+        return affectedResources;
+    }
+
+    /**
+     * Includes diffing the old and new configuration, as a rescan does.
+     */
+    @Benchmark
+    public Set<String> configDiff()
+    {
+        return resolver.calculateAffectedResources(oldConfig, newConfig, index);
+    }
+}
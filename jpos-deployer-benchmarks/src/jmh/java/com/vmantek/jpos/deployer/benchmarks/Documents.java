@@ -0,0 +1,60 @@
+package com.vmantek.jpos.deployer.benchmarks;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Synthetic QBean descriptors.
+ */
+final class Documents
+{
+    private static final String FILLER =
+        "  <property name=\"packager\" value=\"org.jpos.iso.packager.GenericPackager\" />\n";
+
+    private Documents()
+    {
+    }
+
+    static Map<String, String> properties(int count)
+    {
+        Map<String, String> properties = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++)
+        {
+            properties.put("key." + i, "value-" + i);
+        }
+        return properties;
+    }
+
+    /**
+     * @param size    document size in characters
+     * @param density placeholders per kilobyte, alternating {@code ${key}} and {@code @@key@@}
+     * @param keys    number of distinct keys referenced
+     */
+    static String generate(int size, int density, int keys)
+    {
+        final Random random = new Random(size * 31L + density);
+        final StringBuilder sb = new StringBuilder(size + 128);
+        sb.append("<qbean name=\"bench\" class=\"org.jpos.q2.iso.ChannelAdaptor\">\n");
+        final int every = density == 0 ? Integer.MAX_VALUE : Math.max(1, 1024 / density);
+        int next = every;
+        int n = 0;
+        while (sb.length() < size)
+        {
+            if (sb.length() >= next)
+            {
+                final String key = "key." + random.nextInt(keys);
+                sb.append("  <property name=\"p").append(n).append("\" value=\"")
+                  .append((n++ & 1) == 0 ? "${" + key + "}" : "@@" + key + "@@")
+                  .append("\" />\n");
+                next += every;
+            }
+            else
+            {
+                sb.append(FILLER);
+            }
+        }
+        sb.append("</qbean>\n");
+        return sb.toString();
+    }
+}
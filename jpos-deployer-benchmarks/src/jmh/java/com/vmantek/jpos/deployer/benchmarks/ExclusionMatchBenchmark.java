@@ -0,0 +1,73 @@
+package com.vmantek.jpos.deployer.benchmarks;
+
+import com.vmantek.jpos.deployer.support.AntPathMatcher;
+import com.vmantek.jpos.deployer.support.ExclusionMatcher;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deciding whether a resource is filterable under the default exclusions, pattern by
+ * pattern through {@link AntPathMatcher} and through the compiled {@link ExclusionMatcher}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ExclusionMatchBenchmark
+{
+    private static final List<String> EXCLUSIONS =
+        Arrays.asList("cfg/*.ks", "cfg/*.jks", "**/*.jpg", "**/*.gif", "**/*.png", "**/*.pdf");
+
+    private static final String[] PATHS = {
+        "deploy/10_channel.xml",
+        "deploy/20_mux.xml",
+        "cfg/keys.jks",
+        "cfg/packager/iso87.xml",
+        "static/img/logo.png",
+        "docs/manual/guide.pdf",
+        "deploy/99_txnmgr.xml",
+        "cfg/secrets/hsm.ks",
+    };
+
+    private final AntPathMatcher antPathMatcher = new AntPathMatcher();
+    private final ExclusionMatcher exclusionMatcher = new ExclusionMatcher(EXCLUSIONS, antPathMatcher);
+
+    @Benchmark
+    public int antPathMatcher()
+    {
+        int excluded = 0;
+        for (String path : PATHS)
+        {
+            for (String pattern : EXCLUSIONS)
+            {
+                if (antPathMatcher.match(pattern, path))
+                {
+                    excluded++;
+                    break;
+                }
+            }
+        }
+        return excluded;
+    }
+
+    @Benchmark
+    public int exclusionMatcher()
+    {
+        int excluded = 0;
+        for (String path : PATHS)
+        {
+            if (exclusionMatcher.matches(path))
+            {
+                excluded++;
+            }
+        }
+        return excluded;
+    }
+}
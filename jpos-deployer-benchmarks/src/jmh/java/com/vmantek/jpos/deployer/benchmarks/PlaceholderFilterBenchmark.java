@@ -0,0 +1,80 @@
+package com.vmantek.jpos.deployer.benchmarks;
+
+import com.vmantek.jpos.deployer.support.PlaceholderFilter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Placeholder filtering of a resource, the first stage of every filtered install, with
+ * the two regex passes the deployer shipped with as the baseline.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PlaceholderFilterBenchmark
+{
+    private static final Pattern pattern1 = Pattern.compile("\\$\\{(.*?)\\}");
+    private static final Pattern pattern2 = Pattern.compile("@@(.*?)@@");
+
+    /**
+     * Document size in characters.
+     */
+    @Param({"1024", "65536", "1048576"})
+    public int size;
+
+    /**
+     * Placeholders per kilobyte of text.
+     */
+    @Param({"0", "2", "20"})
+    public int density;
+
+    private String doc;
+    private Map<String, String> properties;
+
+    @Setup
+    public void setup()
+    {
+        properties = Documents.properties(100);
+        doc = Documents.generate(size, density, properties.size());
+    }
+
+    @Benchmark
+    public String baseline()
+    {
+        return filterResource(pattern2, filterResource(pattern1, doc));
+    }
+
+    @Benchmark
+    public String filter()
+    {
+        return new PlaceholderFilter(properties::get).filter(doc);
+    }
+
+    private String filterResource(Pattern pattern, String s)
+    {
+        Matcher m = pattern.matcher(s);
+        StringBuffer sb = new StringBuffer(s.length() * 2);
+        while (m.find())
+        {
+            String val = properties.get(m.group(1));
+            if (val != null)
+            {
+                m.appendReplacement(sb, val);
+            }
+        }
+        m.appendTail(sb);
+        return sb.toString();
+    }
+}
@@ -0,0 +1,117 @@
+package com.vmantek.jpos.deployer.benchmarks;
+
+import com.vmantek.jpos.deployer.simple.SimplePropertyResolver;
+import com.vmantek.jpos.deployer.spi.PropertySnapshot;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Property lookups through {@link SimplePropertyResolver}: configured keys, missing keys,
+ * builtins and lookups on a snapshot held for the whole render of a resource. The baseline
+ * checks the builtins before the configuration on every lookup, as the resolver used to.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PropertyResolverBenchmark
+{
+    @Param({"100", "10000"})
+    public int keys;
+
+    private File dir;
+    private SimplePropertyResolver resolver;
+    private PropertySnapshot snapshot;
+    private final Map<String, String> values = new HashMap<>();
+    private String key;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException
+    {
+        dir = Files.createTempDirectory("q2-bench").toFile();
+        final File config = new File(dir, "config.properties");
+        Properties p = new Properties();
+        for (int i = 0; i < keys; i++)
+        {
+            p.setProperty("key." + i, "value-" + i);
+            values.put("key." + i, "value-" + i);
+        }
+        try (OutputStream out = Files.newOutputStream(config.toPath()))
+        {
+            p.store(out, null);
+        }
+        resolver = new SimplePropertyResolver(dir);
+        resolver.removeConfigFile("cfg/config.properties");
+        resolver.addConfigFile(config.getAbsolutePath());
+        resolver.initialize();
+        snapshot = resolver.snapshot();
+        key = "key." + (keys / 2);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown()
+    {
+        new File(dir, "config.properties").delete();
+        dir.delete();
+    }
+
+    @Benchmark
+    public String baseline()
+    {
+        String v = getBuiltin(key);
+        return v != null ? v : values.get(key);
+    }
+
+    @Benchmark
+    public String configured()
+    {
+        return resolver.getProperty(key);
+    }
+
+    @Benchmark
+    public String missing()
+    {
+        return resolver.getProperty("no.such.key");
+    }
+
+    @Benchmark
+    public String builtin()
+    {
+        return resolver.getProperty("basedir");
+    }
+
+    @Benchmark
+    public String snapshot()
+    {
+        return snapshot.getProperty(key);
+    }
+
+    private String getBuiltin(String key)
+    {
+        if (key.startsWith("env:") && key.trim().length() > 4)
+        {
+            return System.getProperty(key.substring(4));
+        }
+        if (key.equals("basedir"))
+        {
+            return dir.getAbsolutePath();
+        }
+        return null;
+    }
+}
@@ -0,0 +1,105 @@
+package com.vmantek.jpos.deployer.benchmarks;
+
+import com.vmantek.jpos.deployer.MapPropertyResolver;
+import com.vmantek.jpos.deployer.support.PropertyModel;
+import com.vmantek.jpos.deployer.support.TemplateCache;
+import freemarker.cache.StringTemplateLoader;
+import freemarker.template.Configuration;
+import freemarker.template.DefaultObjectWrapper;
+import freemarker.template.Template;
+import freemarker.template.TemplateException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * FreeMarker processing of a filtered resource, as done by {@code ResourceDeployer.filterText},
+ * with the template taken from the cache and compiled from scratch. The baseline builds a
+ * configuration, loader and object wrapper for every resource, as the deployer used to.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TemplateBenchmark
+{
+    private static final String RESOURCE = "META-INF/q2-runtime/deploy/10_channel.xml";
+
+    /**
+     * Interpolations and directives in the template.
+     */
+    @Param({"10", "100"})
+    public int expressions;
+
+    private final TemplateCache templateCache = new TemplateCache();
+    private MapPropertyResolver resolver;
+    private String doc;
+
+    @Setup
+    public void setup()
+    {
+        Map<String, String> properties = new LinkedHashMap<>();
+        StringBuilder sb = new StringBuilder("<qbean name=\"bench\">\n");
+        for (int i = 0; i < expressions; i++)
+        {
+            properties.put("key_" + i, "value-" + i);
+            if (i % 10 == 9)
+            {
+                sb.append("[#if key_").append(i).append("?has_content]  <property name=\"debug\" />\n[/#if]\n");
+            }
+            else
+            {
+                sb.append("  <property name=\"p").append(i).append("\" value=\"${key_").append(i).append("}\" />\n");
+            }
+        }
+        doc = sb.append("</qbean>\n").toString();
+        resolver = new MapPropertyResolver(properties);
+    }
+
+    @Benchmark
+    public String baseline() throws IOException, TemplateException
+    {
+        StringTemplateLoader loader = new StringTemplateLoader();
+        loader.putTemplate(RESOURCE, doc, System.currentTimeMillis());
+        Configuration c = new Configuration(Configuration.VERSION_2_3_23);
+        c.setTemplateLoader(loader);
+        c.setTagSyntax(Configuration.SQUARE_BRACKET_TAG_SYNTAX);
+        Template t = c.getTemplate(RESOURCE);
+
+        PropertyModel model = new PropertyModel(resolver, new DefaultObjectWrapper());
+        StringWriter sw = new StringWriter();
+        t.process(model, sw);
+        return sw.toString();
+    }
+
+    @Benchmark
+    public String cached() throws IOException, TemplateException
+    {
+        return process(templateCache.getTemplate(RESOURCE, doc));
+    }
+
+    @Benchmark
+    public String uncached() throws IOException, TemplateException
+    {
+        templateCache.evict(RESOURCE);
+        return process(templateCache.getTemplate(RESOURCE, doc));
+    }
+
+    private String process(Template template) throws IOException, TemplateException
+    {
+        PropertyModel model = new PropertyModel(resolver, templateCache.getObjectWrapper());
+        StringWriter sw = new StringWriter();
+        template.process(model, sw);
+        return sw.toString();
+    }
+}
@@ -0,0 +1,439 @@
+package com.vmantek.jpos.deployer.benchmarks;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.hash.Hashing;
+import com.vmantek.jpos.deployer.DeployerMetrics;
+import com.vmantek.jpos.deployer.ResourceDeployer;
+import com.vmantek.jpos.deployer.simple.SimplePropertyResolver;
+import com.vmantek.jpos.deployer.support.AntPathMatcher;
+import com.vmantek.jpos.deployer.support.ExclusionMatcher;
+import com.vmantek.jpos.deployer.support.PollingChangeDetector;
+import com.vmantek.jpos.deployer.support.ResourceIndex;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end load test: generates a synthetic {@code META-INF/q2-runtime} tree and a
+ * matching configuration file under a temporary directory, then measures a cold and a warm
+ * {@link ResourceDeployer#installRuntimeResources()}, the time from a configuration edit to
+ * the completed redeploy, and peak heap. Everything runs locally; nothing is downloaded.
+ * <p>
+ * Options are given as {@code name=value} arguments:
+ * <ul>
+ * <li>{@code resources} number of runtime resources (1000)</li>
+ * <li>{@code keys} number of configuration keys (same as resources)</li>
+ * <li>{@code placeholders} placeholders per text resource (10)</li>
+ * <li>{@code templateRatio} share of text resources also holding FreeMarker directives (0.2)</li>
+ * <li>{@code binaryRatio} share of binary (unfiltered) resources (0.1)</li>
+ * <li>{@code size} approximate size of a resource in bytes (2048)</li>
+ * <li>{@code index} whether to generate a resource index (false)</li>
+ * <li>{@code parallel} whether to install on the common fork-join pool (false)</li>
+ * <li>{@code poll} poll interval in milliseconds, 0 to use the watch service (0)</li>
+ * <li>{@code quietPeriod} change quiet period in milliseconds (50)</li>
+ * <li>{@code edits} number of configuration edits to time (10)</li>
+ * <li>{@code report} JSON report file (none)</li>
+ * <li>{@code keep} whether to keep the generated tree (false)</li>
+ * </ul>
+ */
+public class LoadHarness
+{
+    private static final List<String> EXCLUSIONS =
+        Arrays.asList("cfg/*.ks", "cfg/*.jks", "**/*.jpg", "**/*.gif", "**/*.png", "**/*.pdf");
+    private static final String FILLER =
+        "  <property name=\"packager\" value=\"org.jpos.iso.packager.GenericPackager\" />\n";
+    private static final long EDIT_TIMEOUT = TimeUnit.SECONDS.toNanos(60);
+
+    private final Map<String, String> options;
+    private final Map<String, Object> report = new LinkedHashMap<>();
+    private final Random random = new Random(42);
+    private final int resources;
+    private final int keys;
+
+    private LoadHarness(Map<String, String> options)
+    {
+        this.options = options;
+        resources = intOption("resources", 1000);
+        keys = intOption("keys", resources);
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (String arg : args)
+        {
+            final int eq = arg.indexOf('=');
+            if (eq <= 0)
+            {
+                throw new IllegalArgumentException("Expected name=value: " + arg);
+            }
+            options.put(arg.substring(0, eq), arg.substring(eq + 1));
+        }
+        new LoadHarness(options).run();
+        System.exit(0);
+    }
+
+    private void run() throws Exception
+    {
+        final Path base = Files.createTempDirectory("q2-load");
+        final File classes = base.resolve("classes").toFile();
+        final File output = base.resolve("output").toFile();
+        final File config = base.resolve("config.properties").toFile();
+        try
+        {
+            long start = System.nanoTime();
+            generate(classes, config);
+            report.putAll(options);
+            report.put("resources", resources);
+            report.put("keys", keys);
+            report.put("generateMillis", millisSince(start));
+
+            final ClassLoader previous = Thread.currentThread().getContextClassLoader();
+            try (URLClassLoader loader = new URLClassLoader(new URL[]{classes.toURI().toURL()}, previous))
+            {
+                Thread.currentThread().setContextClassLoader(loader);
+                measure(output, config);
+            }
+            finally
+            {
+                Thread.currentThread().setContextClassLoader(previous);
+            }
+        }
+        finally
+        {
+            if (!booleanOption("keep", false))
+            {
+                delete(base);
+            }
+            else
+            {
+                report.put("tree", base.toString());
+            }
+        }
+
+        final String json = toJson(report);
+        System.out.println(json);
+        final String reportFile = options.get("report");
+        if (reportFile != null)
+        {
+            final File file = new File(reportFile);
+            file.getAbsoluteFile().getParentFile().mkdirs();
+            Files.write(file.toPath(), json.getBytes(Charsets.UTF_8));
+        }
+    }
+
+    private void measure(File output, File config) throws Exception
+    {
+        final SimplePropertyResolver resolver = new SimplePropertyResolver(output);
+        resolver.removeConfigFile("cfg/config.properties");
+        resolver.addConfigFile(config.getAbsolutePath());
+        final ResourceDeployer deployer = new ResourceDeployer(resolver, output);
+        deployer.setFilterExclusions(EXCLUSIONS);
+        if (booleanOption("parallel", false))
+        {
+            deployer.setInstallExecutor(ForkJoinPool.commonPool());
+        }
+        final long poll = intOption("poll", 0);
+        if (poll > 0)
+        {
+            deployer.setChangeDetector(new PollingChangeDetector(poll));
+        }
+        deployer.setChangeQuietPeriod(intOption("quietPeriod", 50));
+
+        System.gc();
+        final List<MemoryPoolMXBean> heapPools = new ArrayList<>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+        {
+            if (pool.getType() == MemoryType.HEAP)
+            {
+                pool.resetPeakUsage();
+                heapPools.add(pool);
+            }
+        }
+
+        long start = System.nanoTime();
+        deployer.installRuntimeResources();
+        report.put("coldInstallMillis", millisSince(start));
+        start = System.nanoTime();
+        deployer.installRuntimeResources();
+        report.put("warmInstallMillis", millisSince(start));
+
+        deployer.startConfigMonitoring();
+        try
+        {
+            report.put("editToRedeployMillis", timeEdits(deployer, config));
+        }
+        finally
+        {
+            deployer.stopConfigMonitoring();
+        }
+
+        long peak = 0;
+        for (MemoryPoolMXBean pool : heapPools)
+        {
+            peak += pool.getPeakUsage().getUsed();
+        }
+        report.put("peakHeapBytes", peak);
+
+        final DeployerMetrics metrics = deployer.getMetrics();
+        report.put("installed", metrics.getInstalledCount());
+        report.put("unchanged", metrics.getUnchangedCount());
+        report.put("failed", metrics.getFailedCount());
+        report.put("bytesWritten", metrics.getBytesWritten());
+        report.put("enumeration", metrics.getEnumerationLatency().toString());
+        report.put("placeholder", metrics.getPlaceholderLatency().toString());
+        report.put("template", metrics.getTemplateLatency().toString());
+        report.put("write", metrics.getWriteLatency().toString());
+        report.put("scan", metrics.getScanLatency().toString());
+        report.put("redeploy", metrics.getRedeployLatency().toString());
+    }
+
+    /**
+     * Changes one key at a time and waits until every resource depending on it has been
+     * written again.
+     */
+    private Map<String, Object> timeEdits(ResourceDeployer deployer, File config) throws Exception
+    {
+        final int edits = intOption("edits", 10);
+        final Properties properties = new Properties();
+        for (int k = 0; k < keys; k++)
+        {
+            properties.setProperty(key(k), value(k));
+        }
+        // Let the detector settle before the first edit
+        Thread.sleep(500);
+
+        final List<Long> latencies = new ArrayList<>();
+        int dependents = 0;
+        for (int i = 0; i < edits; i++)
+        {
+            String key = null;
+            int affected = 0;
+            for (int tries = 0; tries < keys && affected == 0; tries++)
+            {
+                key = key(random.nextInt(keys));
+                affected = deployer.getDependentResources(key).size();
+            }
+            if (affected == 0)
+            {
+                break;
+            }
+            properties.setProperty(key, "edit-" + i);
+            final long installed = deployer.getMetrics().getInstalledCount();
+            final long start = System.nanoTime();
+            store(properties, config);
+            while (deployer.getMetrics().getInstalledCount() < installed + affected)
+            {
+                if (System.nanoTime() - start > EDIT_TIMEOUT)
+                {
+                    throw new IllegalStateException("No redeploy after editing " + key);
+                }
+                Thread.sleep(1);
+            }
+            latencies.add(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            dependents += affected;
+            // Keep edits apart, so each one is its own burst
+            Thread.sleep(deployer.getChangeQuietPeriod() * 2);
+        }
+
+        final Map<String, Object> result = new LinkedHashMap<>();
+        result.put("edits", latencies.size());
+        result.put("resourcesPerEdit", latencies.isEmpty() ? 0 : dependents / latencies.size());
+        if (!latencies.isEmpty())
+        {
+            Collections.sort(latencies);
+            result.put("min", latencies.get(0));
+            result.put("median", latencies.get(latencies.size() / 2));
+            result.put("max", latencies.get(latencies.size() - 1));
+        }
+        return result;
+    }
+
+    private void generate(File classes, File config) throws IOException
+    {
+        final int placeholders = intOption("placeholders", 10);
+        final double templateRatio = doubleOption("templateRatio", 0.2);
+        final double binaryRatio = doubleOption("binaryRatio", 0.1);
+        final int size = intOption("size", 2048);
+        final ExclusionMatcher exclusions = new ExclusionMatcher(EXCLUSIONS, new AntPathMatcher());
+        final StringBuilder index = new StringBuilder("# exclusions=").append(Joiner.on(',').join(EXCLUSIONS)).append('\n');
+
+        for (int r = 0; r < resources; r++)
+        {
+            final boolean binary = random.nextDouble() < binaryRatio;
+            final String name = binary
+                ? String.format("static/img/%05d.png", r)
+                : String.format("deploy/%05d_qbean.xml", r);
+            final byte[] content = binary
+                ? binary(size)
+                : text(r, size, placeholders, random.nextDouble() < templateRatio).getBytes(Charsets.UTF_8);
+            final File file = new File(classes, ResourceDeployer.RESOURCE_PREFIX + "/" + name);
+            file.getParentFile().mkdirs();
+            Files.write(file.toPath(), content);
+            index.append(ResourceDeployer.RESOURCE_PREFIX).append('/').append(name).append('\t')
+                 .append(content.length).append('\t')
+                 .append(Hashing.sha256().hashBytes(content)).append('\t')
+                 .append(!exclusions.matches(name)).append('\n');
+        }
+        if (booleanOption("index", false))
+        {
+            final File file = new File(classes, ResourceIndex.INDEX_NAME);
+            Files.write(file.toPath(), index.toString().getBytes(Charsets.UTF_8));
+        }
+
+        final Properties properties = new Properties();
+        for (int k = 0; k < keys; k++)
+        {
+            properties.setProperty(key(k), value(k));
+        }
+        store(properties, config);
+    }
+
+    private String text(int r, int size, int placeholders, boolean template)
+    {
+        final StringBuilder sb = new StringBuilder(size + 256);
+        sb.append("<qbean name=\"qbean-").append(r).append("\" class=\"org.jpos.q2.iso.ChannelAdaptor\">\n");
+        if (template)
+        {
+            sb.append("[#if ").append(key(random.nextInt(keys)).replace('.', '_')).append("?? ]\n")
+              .append("  <property name=\"debug\" value=\"true\" />\n")
+              .append("[/#if]\n");
+        }
+        for (int p = 0; p < placeholders; p++)
+        {
+            final String key = key(random.nextInt(keys));
+            sb.append("  <property name=\"p").append(p).append("\" value=\"")
+              .append((p & 1) == 0 ? "${" + key + "}" : "@@" + key + "@@")
+              .append("\" />\n");
+        }
+        while (sb.length() < size)
+        {
+            sb.append(FILLER);
+        }
+        return sb.append("</qbean>\n").toString();
+    }
+
+    private byte[] binary(int size)
+    {
+        final byte[] content = new byte[size];
+        random.nextBytes(content);
+        return content;
+    }
+
+    private static String key(int k)
+    {
+        return "key." + k;
+    }
+
+    private static String value(int k)
+    {
+        return "value-" + k;
+    }
+
+    private static void store(Properties properties, File file) throws IOException
+    {
+        final File tmp = new File(file.getPath() + ".tmp");
+        try (OutputStream out = Files.newOutputStream(tmp.toPath()))
+        {
+            properties.store(out, null);
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private int intOption(String name, int def)
+    {
+        return options.containsKey(name) ? Integer.parseInt(options.get(name)) : def;
+    }
+
+    private double doubleOption(String name, double def)
+    {
+        return options.containsKey(name) ? Double.parseDouble(options.get(name)) : def;
+    }
+
+    private boolean booleanOption(String name, boolean def)
+    {
+        return options.containsKey(name) ? Boolean.parseBoolean(options.get(name)) : def;
+    }
+
+    private static long millisSince(long start)
+    {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
+    private static void delete(Path dir) throws IOException
+    {
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>()
+        {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException
+            {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path d, IOException e) throws IOException
+            {
+                Files.delete(d);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private static String toJson(Object value)
+    {
+        if (value instanceof Map)
+        {
+            final List<String> fields = new ArrayList<>();
+            for (Map.Entry<?, ?> e : ((Map<?, ?>) value).entrySet())
+            {
+                fields.add(toJson(String.valueOf(e.getKey())) + ": " + toJson(e.getValue()));
+            }
+            return "{" + Joiner.on(", ").join(fields) + "}";
+        }
+        if (value instanceof Number || value instanceof Boolean)
+        {
+            return value.toString();
+        }
+        final StringBuilder sb = new StringBuilder("\"");
+        for (char c : String.valueOf(value).toCharArray())
+        {
+            if (c == '"' || c == '\\')
+            {
+                sb.append('\\').append(c);
+            }
+            else if (c < ' ')
+            {
+                sb.append(String.format("\\u%04x", (int) c));
+            }
+            else
+            {
+                sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+}
@@ -0,0 +1,91 @@
+package com.vmantek.jpos.deployer;
+
+import com.vmantek.jpos.deployer.support.ChangeMonitor;
+import com.vmantek.jpos.deployer.support.TemplateCache;
+
+import java.io.Closeable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * What several deployers in one JVM (one per Q2 instance, say) can share: the compiled
+ * templates, a single watch thread for all their tracked sources, a small pool running
+ * their redeploys and, optionally, the executor installing their resources.
+ * <p>
+ * Deployers do not own the context; close it once all of them have stopped monitoring.
+ */
+public class DeployerContext implements Closeable
+{
+    public static final int DEFAULT_DISPATCHER_THREADS = 2;
+
+    private final TemplateCache templateCache = new TemplateCache();
+    private final ChangeMonitor changeMonitor;
+    private final ScheduledExecutorService dispatcher;
+    private volatile Executor installExecutor;
+
+    public DeployerContext()
+    {
+        this(DEFAULT_DISPATCHER_THREADS, null);
+    }
+
+    /**
+     * @param dispatcherThreads threads running the redeploys of all deployers
+     * @param threadFactory     factory for the watch and dispatcher threads, or {@code null} for
+     *                          daemon platform threads; on Java 21+ {@code Thread.ofVirtual().factory()}
+     *                          may be given instead
+     */
+    public DeployerContext(int dispatcherThreads, ThreadFactory threadFactory)
+    {
+        final ThreadFactory factory = threadFactory != null ? threadFactory : newDaemonThreadFactory();
+        changeMonitor = new ChangeMonitor(factory);
+        dispatcher = new ScheduledThreadPoolExecutor(dispatcherThreads, factory);
+    }
+
+    private static ThreadFactory newDaemonThreadFactory()
+    {
+        final AtomicInteger count = new AtomicInteger();
+        return r -> {
+            Thread thread = new Thread(r, "q2-deployer-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    public TemplateCache getTemplateCache()
+    {
+        return templateCache;
+    }
+
+    public ChangeMonitor getChangeMonitor()
+    {
+        return changeMonitor;
+    }
+
+    public ScheduledExecutorService getDispatcher()
+    {
+        return dispatcher;
+    }
+
+    public Executor getInstallExecutor()
+    {
+        return installExecutor;
+    }
+
+    /**
+     * Default install executor of the deployers created with this context afterwards.
+     */
+    public void setInstallExecutor(Executor installExecutor)
+    {
+        this.installExecutor = installExecutor;
+    }
+
+    @Override
+    public void close()
+    {
+        changeMonitor.close();
+        dispatcher.shutdown();
+    }
+}
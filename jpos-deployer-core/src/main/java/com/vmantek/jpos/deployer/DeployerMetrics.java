@@ -0,0 +1,269 @@
+package com.vmantek.jpos.deployer;
+
+import com.vmantek.jpos.deployer.support.LatencyHistogram;
+
+import java.beans.ConstructorProperties;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histograms of a {@link ResourceDeployer}. Recording costs a clock
+ * read and a few atomic increments; everything else is computed when the metrics are read.
+ */
+public class DeployerMetrics implements DeployerMetricsMXBean
+{
+    final LatencyHistogram enumeration = new LatencyHistogram();
+    final LatencyHistogram placeholder = new LatencyHistogram();
+    final LatencyHistogram template = new LatencyHistogram();
+    final LatencyHistogram write = new LatencyHistogram();
+    final LatencyHistogram install = new LatencyHistogram();
+    final LatencyHistogram scan = new LatencyHistogram();
+    final LatencyHistogram detection = new LatencyHistogram();
+    final LatencyHistogram redeploy = new LatencyHistogram();
+    final LatencyHistogram wave = new LatencyHistogram();
+
+    private final LongAdder installed = new LongAdder();
+    private final LongAdder unchanged = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder bytesWritten = new LongAdder();
+    private final LongAdder changeEvents = new LongAdder();
+    private final LongAdder redeploys = new LongAdder();
+    private final ConcurrentMap<String, ResourceRecord> resources = new ConcurrentHashMap<>();
+
+    void recordInstall(InstallResult result, long nanos, long bytes)
+    {
+        install.record(nanos);
+        switch (result.getStatus())
+        {
+            case INSTALLED:
+                installed.increment();
+                bytesWritten.add(bytes);
+                break;
+            case UNCHANGED:
+                unchanged.increment();
+                break;
+            default:
+                failed.increment();
+        }
+        resources.computeIfAbsent(result.getResource(), r -> new ResourceRecord()).record(nanos, bytes);
+    }
+
+    /**
+     * Counts a change pushed by the property resolver, whose detection latency is unknown.
+     */
+    void recordChangeEvent()
+    {
+        changeEvents.increment();
+    }
+
+    void recordChangeEvent(long detectionMillis)
+    {
+        changeEvents.increment();
+        detection.record(TimeUnit.MILLISECONDS.toNanos(detectionMillis));
+    }
+
+    /**
+     * @param nanos time since the first change event, or a negative value if the redeploy
+     *              was not triggered by an event
+     */
+    void recordRedeploy(long nanos)
+    {
+        redeploys.increment();
+        if (nanos >= 0)
+        {
+            redeploy.record(nanos);
+        }
+    }
+
+    void removeResource(String resource)
+    {
+        resources.remove(resource);
+    }
+
+    @Override
+    public long getInstalledCount()
+    {
+        return installed.sum();
+    }
+
+    @Override
+    public long getUnchangedCount()
+    {
+        return unchanged.sum();
+    }
+
+    @Override
+    public long getFailedCount()
+    {
+        return failed.sum();
+    }
+
+    @Override
+    public long getBytesWritten()
+    {
+        return bytesWritten.sum();
+    }
+
+    @Override
+    public long getChangeEventCount()
+    {
+        return changeEvents.sum();
+    }
+
+    @Override
+    public long getRedeployCount()
+    {
+        return redeploys.sum();
+    }
+
+    @Override
+    public double getCoalescingRatio()
+    {
+        final long r = redeploys.sum();
+        return r == 0 ? 0 : (double) changeEvents.sum() / r;
+    }
+
+    @Override
+    public LatencyHistogram.Snapshot getEnumerationLatency()
+    {
+        return enumeration.snapshot();
+    }
+
+    @Override
+    public LatencyHistogram.Snapshot getPlaceholderLatency()
+    {
+        return placeholder.snapshot();
+    }
+
+    @Override
+    public LatencyHistogram.Snapshot getTemplateLatency()
+    {
+        return template.snapshot();
+    }
+
+    @Override
+    public LatencyHistogram.Snapshot getWriteLatency()
+    {
+        return write.snapshot();
+    }
+
+    @Override
+    public LatencyHistogram.Snapshot getInstallLatency()
+    {
+        return install.snapshot();
+    }
+
+    @Override
+    public LatencyHistogram.Snapshot getScanLatency()
+    {
+        return scan.snapshot();
+    }
+
+    @Override
+    public LatencyHistogram.Snapshot getDetectionLatency()
+    {
+        return detection.snapshot();
+    }
+
+    @Override
+    public LatencyHistogram.Snapshot getRedeployLatency()
+    {
+        return redeploy.snapshot();
+    }
+
+    @Override
+    public LatencyHistogram.Snapshot getWaveLatency()
+    {
+        return wave.snapshot();
+    }
+
+    @Override
+    public Map<String, ResourceStats> getResourceStats()
+    {
+        final Map<String, ResourceStats> stats = new TreeMap<>();
+        resources.forEach((resource, record) -> stats.put(resource, record.snapshot()));
+        return stats;
+    }
+
+    @Override
+    public void reset()
+    {
+        for (LatencyHistogram h : new LatencyHistogram[]{enumeration, placeholder, template, write, install, scan, detection, redeploy, wave})
+        {
+            h.reset();
+        }
+        for (LongAdder a : new LongAdder[]{installed, unchanged, failed, bytesWritten, changeEvents, redeploys})
+        {
+            a.reset();
+        }
+        resources.clear();
+    }
+
+    private static class ResourceRecord
+    {
+        private long renders;
+        private long lastNanos;
+        private long maxNanos;
+        private long lastBytes;
+
+        synchronized void record(long nanos, long bytes)
+        {
+            renders++;
+            lastNanos = nanos;
+            maxNanos = Math.max(maxNanos, nanos);
+            lastBytes = bytes;
+        }
+
+        synchronized ResourceStats snapshot()
+        {
+            return new ResourceStats(renders,
+                                     TimeUnit.NANOSECONDS.toMicros(lastNanos),
+                                     TimeUnit.NANOSECONDS.toMicros(maxNanos),
+                                     lastBytes);
+        }
+    }
+
+    public static class ResourceStats
+    {
+        private final long renders;
+        private final long lastRenderMicros;
+        private final long maxRenderMicros;
+        private final long lastBytes;
+
+        @ConstructorProperties({"renders", "lastRenderMicros", "maxRenderMicros", "lastBytes"})
+        public ResourceStats(long renders, long lastRenderMicros, long maxRenderMicros, long lastBytes)
+        {
+            this.renders = renders;
+            this.lastRenderMicros = lastRenderMicros;
+            this.maxRenderMicros = maxRenderMicros;
+            this.lastBytes = lastBytes;
+        }
+
+        public long getRenders()
+        {
+            return renders;
+        }
+
+        public long getLastRenderMicros()
+        {
+            return lastRenderMicros;
+        }
+
+        public long getMaxRenderMicros()
+        {
+            return maxRenderMicros;
+        }
+
+        /**
+         * @return size of the last rendered output
+         */
+        public long getLastBytes()
+        {
+            return lastBytes;
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.vmantek.jpos.deployer;
+
+import com.vmantek.jpos.deployer.support.LatencyHistogram;
+
+import java.util.Map;
+
+/**
+ * Management view of a {@link ResourceDeployer}; latencies are in microseconds.
+ */
+public interface DeployerMetricsMXBean
+{
+    long getInstalledCount();
+
+    long getUnchangedCount();
+
+    long getFailedCount();
+
+    long getBytesWritten();
+
+    long getChangeEventCount();
+
+    long getRedeployCount();
+
+    /**
+     * @return change events per coalesced redeploy
+     */
+    double getCoalescingRatio();
+
+    LatencyHistogram.Snapshot getEnumerationLatency();
+
+    LatencyHistogram.Snapshot getPlaceholderLatency();
+
+    LatencyHistogram.Snapshot getTemplateLatency();
+
+    LatencyHistogram.Snapshot getWriteLatency();
+
+    LatencyHistogram.Snapshot getInstallLatency();
+
+    LatencyHistogram.Snapshot getScanLatency();
+
+    /**
+     * @return time from the change of a tracked source until it was detected
+     */
+    LatencyHistogram.Snapshot getDetectionLatency();
+
+    /**
+     * @return time from the first change event of a burst until its redeploy completed
+     */
+    LatencyHistogram.Snapshot getRedeployLatency();
+
+    /**
+     * @return time to render and commit one wave of a redeploy, when redeploys go in waves
+     */
+    LatencyHistogram.Snapshot getWaveLatency();
+
+    Map<String, DeployerMetrics.ResourceStats> getResourceStats();
+
+    void reset();
+}
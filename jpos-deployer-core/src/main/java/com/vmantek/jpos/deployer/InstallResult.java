@@ -0,0 +1,63 @@
+package com.vmantek.jpos.deployer;
+
+public class InstallResult
+{
+    public enum Status
+    {
+        INSTALLED,
+        UNCHANGED,
+        FAILED
+    }
+
+    private final String resource;
+    private final Status status;
+    private final Throwable error;
+
+    private InstallResult(String resource, Status status, Throwable error)
+    {
+        this.resource = resource;
+        this.status = status;
+        this.error = error;
+    }
+
+    public static InstallResult installed(String resource)
+    {
+        return new InstallResult(resource, Status.INSTALLED, null);
+    }
+
+    public static InstallResult unchanged(String resource)
+    {
+        return new InstallResult(resource, Status.UNCHANGED, null);
+    }
+
+    public static InstallResult failed(String resource, Throwable error)
+    {
+        return new InstallResult(resource, Status.FAILED, error);
+    }
+
+    public String getResource()
+    {
+        return resource;
+    }
+
+    public Status getStatus()
+    {
+        return status;
+    }
+
+    public Throwable getError()
+    {
+        return error;
+    }
+
+    public boolean isFailed()
+    {
+        return status == Status.FAILED;
+    }
+
+    @Override
+    public String toString()
+    {
+        return resource + " [" + status + (error != null ? ": " + error : "") + "]";
+    }
+}
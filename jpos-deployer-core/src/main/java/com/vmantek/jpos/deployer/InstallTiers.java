@@ -0,0 +1,127 @@
+package com.vmantek.jpos.deployer;
+
+import com.vmantek.jpos.deployer.support.AntPathMatcher;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Splits the runtime resources into tiers installed one after the other, lowest first. A
+ * resource belongs to the tier of the first Ant pattern it matches; failing that, with
+ * {@link #setNamePrefixes(boolean) name prefixes} on, a file named like {@code 10_channel.xml}
+ * belongs to tier 10. Anything else is in the {@link #setDefaultTier(int) default tier},
+ * the last one unless configured otherwise.
+ * <p>
+ * Patterns are matched against the path below {@code META-INF/q2-runtime}, as filter
+ * exclusions are.
+ */
+public class InstallTiers
+{
+    private final AntPathMatcher antPathMatcher = new AntPathMatcher();
+    private final List<String> patterns = new ArrayList<>();
+    private final List<Integer> tiers = new ArrayList<>();
+    private boolean namePrefixes;
+    private int defaultTier = Integer.MAX_VALUE;
+    private Listener listener;
+
+    /**
+     * Called once every resource of a tier has been installed and the tier is on disk.
+     */
+    public interface Listener
+    {
+        void tierInstalled(int tier, List<InstallResult> results);
+    }
+
+    public void addPattern(int tier, String pattern)
+    {
+        patterns.add(pattern);
+        tiers.add(tier);
+    }
+
+    public boolean isNamePrefixes()
+    {
+        return namePrefixes;
+    }
+
+    /**
+     * Takes the tier of files named {@code NN_name} from their {@code NN} prefix.
+     */
+    public void setNamePrefixes(boolean namePrefixes)
+    {
+        this.namePrefixes = namePrefixes;
+    }
+
+    public int getDefaultTier()
+    {
+        return defaultTier;
+    }
+
+    public void setDefaultTier(int defaultTier)
+    {
+        this.defaultTier = defaultTier;
+    }
+
+    public Listener getListener()
+    {
+        return listener;
+    }
+
+    public void setListener(Listener listener)
+    {
+        this.listener = listener;
+    }
+
+    /**
+     * @param filename the path of a resource below {@code META-INF/q2-runtime}
+     */
+    public int getTier(String filename)
+    {
+        for (int i = 0; i < patterns.size(); i++)
+        {
+            if (antPathMatcher.match(patterns.get(i), filename))
+            {
+                return tiers.get(i);
+            }
+        }
+        if (namePrefixes)
+        {
+            final int tier = prefixTier(filename.substring(filename.lastIndexOf('/') + 1));
+            if (tier >= 0)
+            {
+                return tier;
+            }
+        }
+        return defaultTier;
+    }
+
+    private static int prefixTier(String name)
+    {
+        int i = 0;
+        while (i < name.length() && i < 9 && name.charAt(i) >= '0' && name.charAt(i) <= '9')
+        {
+            i++;
+        }
+        if (i == 0 || i >= name.length() || name.charAt(i) != '_')
+        {
+            return -1;
+        }
+        return Integer.parseInt(name.substring(0, i));
+    }
+
+    /**
+     * @param resources resources under {@code META-INF/q2-runtime}
+     * @return the resources of every tier, in installation order
+     */
+    public SortedMap<Integer, List<String>> split(List<String> resources)
+    {
+        final SortedMap<Integer, List<String>> split = new TreeMap<>();
+        for (String resource : resources)
+        {
+            final String filename = resource.substring(ResourceDeployer.RESOURCE_PREFIX.length() + 1);
+            split.computeIfAbsent(getTier(filename), k -> new ArrayList<>()).add(resource);
+        }
+        return split;
+    }
+}
@@ -0,0 +1,140 @@
+package com.vmantek.jpos.deployer;
+
+import com.vmantek.jpos.deployer.support.AntPathMatcher;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Splits the resources affected by a configuration change into waves redeployed one after
+ * the other, with a pause in between, so that a shared property does not restart every
+ * channel at the same moment.
+ * <p>
+ * Resources are ordered by the first {@link #addOrder(String) order pattern} they match,
+ * those matching none last, and by path within that. Patterns are matched against the
+ * path below {@code META-INF/q2-runtime}, as filter exclusions are.
+ */
+public class RedeployWaves
+{
+    private final AntPathMatcher antPathMatcher = new AntPathMatcher();
+    private final List<String> order = new ArrayList<>();
+    private int waveSize;
+    private int wavePercent;
+    private long delay;
+    private Listener listener;
+
+    /**
+     * Called after every wave has been written.
+     */
+    public interface Listener
+    {
+        /**
+         * @param wave  number of the wave, from 1
+         * @param waves number of waves of this redeploy
+         * @param nanos time taken to render and commit the wave
+         */
+        void waveRedeployed(int wave, int waves, List<InstallResult> results, long nanos);
+    }
+
+    public void addOrder(String pattern)
+    {
+        order.add(pattern);
+    }
+
+    public int getWaveSize()
+    {
+        return waveSize;
+    }
+
+    /**
+     * Most resources redeployed per wave, 0 for no limit.
+     */
+    public void setWaveSize(int waveSize)
+    {
+        this.waveSize = waveSize;
+    }
+
+    public int getWavePercent()
+    {
+        return wavePercent;
+    }
+
+    /**
+     * Most resources redeployed per wave, as a percentage of the affected ones, 0 for no
+     * limit. When a wave size is set too, the smaller limit applies.
+     */
+    public void setWavePercent(int wavePercent)
+    {
+        this.wavePercent = wavePercent;
+    }
+
+    public long getDelay()
+    {
+        return delay;
+    }
+
+    /**
+     * Milliseconds to wait between the end of a wave and the start of the next.
+     */
+    public void setDelay(long delay)
+    {
+        this.delay = delay;
+    }
+
+    public Listener getListener()
+    {
+        return listener;
+    }
+
+    public void setListener(Listener listener)
+    {
+        this.listener = listener;
+    }
+
+    /**
+     * @param resources resources under {@code META-INF/q2-runtime}
+     * @return the resources of every wave, in redeploy order
+     */
+    public List<List<String>> split(Collection<String> resources)
+    {
+        final List<String> ordered = new ArrayList<>(resources);
+        ordered.sort(Comparator.comparingInt(this::getRank).thenComparing(Comparator.naturalOrder()));
+
+        final int size = getWaveSize(ordered.size());
+        final List<List<String>> waves = new ArrayList<>();
+        for (int i = 0; i < ordered.size(); i += size)
+        {
+            waves.add(new ArrayList<>(ordered.subList(i, Math.min(i + size, ordered.size()))));
+        }
+        return waves;
+    }
+
+    private int getWaveSize(int total)
+    {
+        int size = total;
+        if (waveSize > 0)
+        {
+            size = Math.min(size, waveSize);
+        }
+        if (wavePercent > 0)
+        {
+            size = Math.min(size, (int) Math.ceil(total * wavePercent / 100.0));
+        }
+        return Math.max(size, 1);
+    }
+
+    private int getRank(String resource)
+    {
+        final String filename = resource.substring(ResourceDeployer.RESOURCE_PREFIX.length() + 1);
+        for (int i = 0; i < order.size(); i++)
+        {
+            if (antPathMatcher.match(order.get(i), filename))
+            {
+                return i;
+            }
+        }
+        return order.size();
+    }
+}
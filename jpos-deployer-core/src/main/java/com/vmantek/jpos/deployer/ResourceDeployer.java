@@ -1,69 +1,151 @@
 package com.vmantek.jpos.deployer;
 
-import com.google.common.collect.Multimap;
-import com.google.common.collect.TreeMultimap;
+import com.google.common.hash.HashingOutputStream;
 import com.google.common.io.Resources;
-import com.sun.nio.file.SensitivityWatchEventModifier;
+import com.vmantek.jpos.deployer.spi.ChangeDetector;
+import com.vmantek.jpos.deployer.spi.DeployListener;
+import com.vmantek.jpos.deployer.spi.PropertyChangeListener;
+import com.vmantek.jpos.deployer.spi.PropertyChangeSet;
+import com.vmantek.jpos.deployer.spi.PropertyChangeSource;
 import com.vmantek.jpos.deployer.spi.PropertyResolver;
+import com.vmantek.jpos.deployer.spi.PropertySnapshot;
 import com.vmantek.jpos.deployer.support.AntPathMatcher;
+import com.vmantek.jpos.deployer.support.ChangeCoalescer;
+import com.vmantek.jpos.deployer.support.DeployIndex;
+import com.vmantek.jpos.deployer.support.PlaceholderFilter;
 import com.vmantek.jpos.deployer.support.PropertyModel;
-import freemarker.cache.StringTemplateLoader;
-import freemarker.ext.beans.BeansWrapper;
-import freemarker.template.Configuration;
-import freemarker.template.DefaultObjectWrapper;
+import com.vmantek.jpos.deployer.support.RenderCache;
+import com.vmantek.jpos.deployer.support.ResourceCopier;
+import com.vmantek.jpos.deployer.support.ResourceCatalog;
+import com.vmantek.jpos.deployer.support.ResourceIndex;
+import com.vmantek.jpos.deployer.support.ResourceKeyIndex;
+import com.vmantek.jpos.deployer.support.StagedBatch;
+import com.vmantek.jpos.deployer.support.StagedBatch.StagedFile;
+import com.vmantek.jpos.deployer.support.StagingArea;
+import com.vmantek.jpos.deployer.support.TemplateCache;
+import com.vmantek.jpos.deployer.support.WatchServiceChangeDetector;
+import com.vmantek.jpos.deployer.support.WaveRunner;
 import freemarker.template.Template;
 import freemarker.template.TemplateException;
-import org.jpos.q2.install.ModuleUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
-import java.io.FileOutputStream;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
 import java.net.URL;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
-import java.nio.file.FileSystems;
+import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.WatchEvent;
-import java.nio.file.WatchKey;
-import java.nio.file.WatchService;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
 import java.util.TreeSet;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
-import static java.nio.file.StandardWatchEventKinds.*;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
 
 @SuppressWarnings("ResultOfMethodCallIgnored")
 public class ResourceDeployer implements Runnable
 {
     public static final String RESOURCE_PREFIX = "META-INF/q2-runtime";
+    public static final String STAGING_DIR = ".q2-staging";
+    public static final String MBEAN_DOMAIN = "com.vmantek.jpos.deployer";
+    private static final int FILTER_CHUNK_SIZE = 8192;
+    private static final long DEFAULT_QUIET_PERIOD = 250;
+    private static final long DEFAULT_MAX_DELAY = 2000;
     private static final Logger log = LoggerFactory.getLogger(ResourceDeployer.class);
-    private static final Pattern pattern1 = Pattern.compile("\\$\\{(.*?)\\}");
-    private static final Pattern pattern2 = Pattern.compile("@@(.*?)@@");
     private static final AntPathMatcher antPathMatcher = new AntPathMatcher();
     private static final ClassLoader cl = ResourceDeployer.class.getClassLoader();
     private static ResourceDeployer INSTANCE = null;
-    private List<String> filterExclusions = new ArrayList<>();
+    private final ResourceCatalog catalog = new ResourceCatalog(RESOURCE_PREFIX, antPathMatcher);
     private File outputBase;
+    private final StagingArea staging;
 
-    private Multimap<String, String> resourceProps = TreeMultimap.create();
+    private final ResourceKeyIndex resourceProps = new ResourceKeyIndex();
 
     private PropertyResolver propertyResolver;
-    private Thread t;
-    private boolean running;
+    private Executor installExecutor;
+    private final DeployerContext context;
+    private final TemplateCache templateCache;
+    private DeployIndex deployIndex = new DeployIndex();
+    private RenderCache renderCache;
+    private boolean preallocateFiles;
+    private InstallTiers installTiers;
+    private boolean batchCommit;
+    private RedeployWaves redeployWaves;
+    private final List<DeployListener> deployListeners = new CopyOnWriteArrayList<>();
+    private long changeQuietPeriod = DEFAULT_QUIET_PERIOD;
+    private long changeMaxDelay = DEFAULT_MAX_DELAY;
+    private ScheduledExecutorService changeScheduler;
+    private volatile ChangeCoalescer changeCoalescer;
+    private final Object monitorLock = new Object();
+    private boolean monitoring;
+    private final WaveRunner waveRunner = new WaveRunner(this::signalChange);
+    private ChangeDetector changeDetector;
+    private final DeployerMetrics metrics = new DeployerMetrics();
+    private final AtomicLong changePendingSince = new AtomicLong();
+    private final AtomicBoolean sourcesChanged = new AtomicBoolean();
+    private final Set<String> pushedKeys = ConcurrentHashMap.newKeySet();
+    private final PropertyChangeListener propertyChangeListener = this::onPropertiesChanged;
+    private PropertyChangeSource changeSource;
+    private volatile Thread scanningThread;
+    private ObjectName mbeanName;
+
+    public ResourceDeployer(PropertyResolver propertyResolver, File outputBase)
+    {
+        this(propertyResolver, outputBase, null);
+    }
 
-    private ResourceDeployer(PropertyResolver propertyResolver, File outputBase)
+    /**
+     * @param context what this deployer shares with others in the JVM, or {@code null} to share nothing
+     */
+    public ResourceDeployer(PropertyResolver propertyResolver, File outputBase, DeployerContext context)
     {
         this.outputBase = outputBase;
         this.propertyResolver = propertyResolver;
+        this.context = context;
+        this.staging = new StagingArea(new File(outputBase, STAGING_DIR), FILTER_CHUNK_SIZE);
+        if (context != null)
+        {
+            templateCache = context.getTemplateCache();
+            installExecutor = context.getInstallExecutor();
+        }
+        else
+        {
+            templateCache = new TemplateCache();
+        }
     }
 
     public static String getResourcePrefix()
@@ -71,35 +153,246 @@ public class ResourceDeployer implements Runnable
         return RESOURCE_PREFIX;
     }
 
+    /**
+     * @deprecated create deployers with a constructor and keep hold of them; several may
+     * share a {@link DeployerContext}
+     */
+    @Deprecated
     public static ResourceDeployer newInstance(PropertyResolver propertyResolver, File outputBase) throws IOException
     {
         INSTANCE = new ResourceDeployer(propertyResolver, outputBase);
         return INSTANCE;
     }
 
+    /**
+     * @deprecated only returns the last deployer created by {@link #newInstance}
+     */
+    @Deprecated
     public static ResourceDeployer getInstance()
     {
         return INSTANCE;
     }
 
+    public DeployerContext getContext()
+    {
+        return context;
+    }
+
     public void setFilterExclusions(Collection<String> exclusions)
     {
-        filterExclusions.clear();
-        exclusions.forEach(this::addFilterExclusion);
+        catalog.setExclusions(exclusions);
     }
 
     public void addFilterExclusion(String pattern)
     {
-        if (!antPathMatcher.isPattern(pattern))
+        catalog.addExclusion(pattern);
+    }
+
+    public void removeFilterExclusion(String pattern)
+    {
+        catalog.removeExclusion(pattern);
+    }
+
+    public boolean isPersistentIndex()
+    {
+        return deployIndex.isPersistent();
+    }
+
+    /**
+     * Keeps the index of written files under the output base, so that unchanged
+     * resources are not rewritten across restarts either.
+     */
+    public void setPersistentIndex(boolean persistent) throws IOException
+    {
+        deployIndex = persistent ? DeployIndex.load(new File(outputBase, DeployIndex.FILENAME)) : new DeployIndex();
+    }
+
+    public boolean isPersistentRenderCache()
+    {
+        return renderCache != null;
+    }
+
+    /**
+     * Keeps what every filtered resource was rendered from under the output base, so that
+     * after a restart a resource whose source and properties did not change is neither
+     * rendered nor rewritten.
+     */
+    public void setPersistentRenderCache(boolean persistent) throws IOException
+    {
+        renderCache = persistent ? RenderCache.load(new File(outputBase, RenderCache.FILENAME)) : null;
+    }
+
+    public boolean isPreallocateFiles()
+    {
+        return preallocateFiles;
+    }
+
+    /**
+     * Sizes unfiltered outputs to the known size of their source before copying them.
+     */
+    public void setPreallocateFiles(boolean preallocateFiles)
+    {
+        this.preallocateFiles = preallocateFiles;
+    }
+
+    public InstallTiers getInstallTiers()
+    {
+        return installTiers;
+    }
+
+    /**
+     * Installs the runtime resources tier by tier: every file of a tier is written and
+     * synced to disk, and the tier's listener called, before the next tier starts.
+     */
+    public void setInstallTiers(InstallTiers installTiers)
+    {
+        this.installTiers = installTiers;
+    }
+
+    public boolean isBatchCommit()
+    {
+        return batchCommit;
+    }
+
+    /**
+     * Redeploys the resources affected by a configuration change in two phases: all of them
+     * are rendered into the staging directory first, then moved into place one after the
+     * other, by tier and file name. Q2 sees every file appear complete exactly once, and
+     * does not see a mix of old and new descriptors while the rendering is still going on.
+     * A resource that fails to render keeps its previous output.
+     */
+    public void setBatchCommit(boolean batchCommit)
+    {
+        this.batchCommit = batchCommit;
+    }
+
+    public RedeployWaves getRedeployWaves()
+    {
+        return redeployWaves;
+    }
+
+    /**
+     * Redeploys the resources affected by a configuration change in waves rather than all
+     * at once. The first wave runs on the thread scanning for changes and the others are
+     * scheduled after the pause, so no thread is held while waiting; changes made meanwhile
+     * are picked up once the last wave is done.
+     */
+    public void setRedeployWaves(RedeployWaves redeployWaves)
+    {
+        this.redeployWaves = redeployWaves;
+    }
+
+    /**
+     * Adds a listener told about the files written by every install tier, redeploy and
+     * redeploy wave, such as a {@link com.vmantek.jpos.deployer.support.Q2DeployNotifier}.
+     */
+    public void addDeployListener(DeployListener listener)
+    {
+        deployListeners.add(listener);
+    }
+
+    public void removeDeployListener(DeployListener listener)
+    {
+        deployListeners.remove(listener);
+    }
+
+    public Executor getInstallExecutor()
+    {
+        return installExecutor;
+    }
+
+    /**
+     * Executor used to read, filter and write resources in parallel. When no executor is
+     * set, {@link #installRuntimeResources()} installs sequentially on the calling thread
+     * and {@link #installRuntimeResourcesAsync()} falls back to the common fork-join pool.
+     */
+    public void setInstallExecutor(Executor installExecutor)
+    {
+        this.installExecutor = installExecutor;
+    }
+
+    public long getChangeQuietPeriod()
+    {
+        return changeQuietPeriod;
+    }
+
+    /**
+     * Milliseconds the tracked sources must stay quiet before a burst of change events is
+     * scanned and redeployed as one batch.
+     */
+    public void setChangeQuietPeriod(long millis)
+    {
+        changeQuietPeriod = millis;
+        final ChangeCoalescer coalescer = changeCoalescer;
+        if (coalescer != null)
         {
-            throw new IllegalArgumentException("Invalid pattern: " + pattern);
+            coalescer.setQuietPeriod(millis);
         }
-        filterExclusions.add(pattern);
     }
 
-    public void removeFilterExclusion(String pattern)
+    public long getChangeMaxDelay()
+    {
+        return changeMaxDelay;
+    }
+
+    /**
+     * Upper bound, in milliseconds, between the first change event of a burst and its
+     * redeploy, however long the burst goes on.
+     */
+    public void setChangeMaxDelay(long millis)
+    {
+        changeMaxDelay = millis;
+        final ChangeCoalescer coalescer = changeCoalescer;
+        if (coalescer != null)
+        {
+            coalescer.setMaxDelay(millis);
+        }
+    }
+
+    public ChangeDetector getChangeDetector()
+    {
+        return changeDetector;
+    }
+
+    /**
+     * Detector watching the tracked sources of the property resolver, a
+     * {@link WatchServiceChangeDetector} unless set before monitoring starts. With a
+     * context, the default detector uses the context's shared watch thread.
+     */
+    public void setChangeDetector(ChangeDetector changeDetector)
+    {
+        this.changeDetector = changeDetector;
+    }
+
+    public DeployerMetrics getMetrics()
+    {
+        return metrics;
+    }
+
+    /**
+     * Registers the metrics of this deployer with the platform MBean server, as
+     * {@code com.vmantek.jpos.deployer:type=ResourceDeployer,name="<name>"}.
+     */
+    public ObjectName registerMBean(String name) throws JMException
+    {
+        final ObjectName objectName = new ObjectName(MBEAN_DOMAIN + ":type=ResourceDeployer,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, objectName);
+        mbeanName = objectName;
+        return objectName;
+    }
+
+    public void unregisterMBean() throws JMException
     {
-        filterExclusions.remove(pattern);
+        if (mbeanName != null)
+        {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(mbeanName);
+            mbeanName = null;
+        }
+    }
+
+    private Executor getExecutor()
+    {
+        return installExecutor != null ? installExecutor : ForkJoinPool.commonPool();
     }
 
     private void init() throws IOException
@@ -109,33 +402,214 @@ public class ResourceDeployer implements Runnable
 
     protected void setupDefaultExclusions()
     {
-        filterExclusions.clear();
-        filterExclusions.add("cfg/*.ks");
-        filterExclusions.add("cfg/*.jks");
-        filterExclusions.add("**/*.jpg");
-        filterExclusions.add("**/*.gif");
-        filterExclusions.add("**/*.png");
-        filterExclusions.add("**/*.pdf");
+        catalog.setExclusions(Arrays.asList("cfg/*.ks", "cfg/*.jks", "**/*.jpg", "**/*.gif", "**/*.png", "**/*.pdf"));
     }
 
     public List<String> getAvailableResources() throws IOException
     {
-        return ModuleUtils.getModuleEntries(RESOURCE_PREFIX);
+        final long start = System.nanoTime();
+        try
+        {
+            return catalog.getResources(getClassLoader());
+        }
+        finally
+        {
+            metrics.enumeration.recordSince(start);
+        }
+    }
+
+    /**
+     * @return the build-time index of runtime resources, completed with the resources of
+     * classpath elements that have no index, or {@code null} if the classpath has none
+     */
+    public ResourceIndex getResourceIndex() throws IOException
+    {
+        return catalog.getIndex(getClassLoader());
+    }
+
+    private static ClassLoader getClassLoader()
+    {
+        final ClassLoader tccl = Thread.currentThread().getContextClassLoader();
+        return tccl != null ? tccl : cl;
     }
 
     public void installRuntimeResources() throws IOException
     {
+        if (installExecutor != null)
+        {
+            try
+            {
+                installRuntimeResourcesAsync().join();
+            }
+            catch (CompletionException e)
+            {
+                if (e.getCause() instanceof UncheckedIOException)
+                {
+                    throw ((UncheckedIOException) e.getCause()).getCause();
+                }
+                throw e;
+            }
+            return;
+        }
+
         init();
         resourceProps.clear();
-        List<String> entries = getAvailableResources();
-        final List<String> filtered = entries
+        for (Map.Entry<Integer, List<String>> tier : splitTiers(getAvailableResources()).entrySet())
+        {
+            final List<InstallResult> results = new ArrayList<>();
+            for (String resource : tier.getValue())
+            {
+                results.add(doInstallResource(resource, catalog.isFilterable(resource)));
+            }
+            completeTier(tier.getKey(), results);
+        }
+        saveIndexes();
+    }
+
+    public CompletableFuture<List<InstallResult>> installRuntimeResourcesAsync()
+    {
+        final Executor executor = getExecutor();
+        return CompletableFuture
+            .supplyAsync(() -> {
+                try
+                {
+                    init();
+                    resourceProps.clear();
+                    return getAvailableResources();
+                }
+                catch (IOException e)
+                {
+                    throw new UncheckedIOException(e);
+                }
+            }, executor)
+            .thenCompose(entries -> {
+                // Tiers run one after the other, the resources of a tier in parallel
+                CompletableFuture<List<InstallResult>> done = CompletableFuture.completedFuture(new ArrayList<>());
+                for (Map.Entry<Integer, List<String>> tier : splitTiers(entries).entrySet())
+                {
+                    done = done.thenCompose(results -> installTierAsync(tier.getKey(), tier.getValue(), executor)
+                        .thenApply(tierResults -> {
+                            results.addAll(tierResults);
+                            return results;
+                        }));
+                }
+                return done.thenApply(results -> {
+                    saveIndexes();
+                    return results;
+                });
+            });
+    }
+
+    private CompletableFuture<List<InstallResult>> installTierAsync(int tier, List<String> resources, Executor executor)
+    {
+        final List<CompletableFuture<InstallResult>> futures = resources
             .stream()
-            .filter(this::isResourceFilterable)
+            .map(resource -> CompletableFuture.supplyAsync(
+                () -> tryInstallResource(resource, catalog.isFilterable(resource)), executor))
             .collect(Collectors.toList());
+        return CompletableFuture
+            .allOf(futures.toArray(new CompletableFuture<?>[0]))
+            .thenApply(v -> {
+                final List<InstallResult> results = futures
+                    .stream()
+                    .map(CompletableFuture::join)
+                    .collect(Collectors.toList());
+                try
+                {
+                    completeTier(tier, results);
+                }
+                catch (IOException e)
+                {
+                    throw new UncheckedIOException(e);
+                }
+                return results;
+            });
+    }
+
+    private SortedMap<Integer, List<String>> splitTiers(List<String> resources)
+    {
+        final InstallTiers tiers = installTiers;
+        return tiers != null ? tiers.split(resources) : new TreeMap<>(Collections.singletonMap(0, resources));
+    }
+
+    private void completeTier(int tier, List<InstallResult> results) throws IOException
+    {
+        final InstallTiers tiers = installTiers;
+        if (tiers != null)
+        {
+            syncInstalled(results);
+            final InstallTiers.Listener listener = tiers.getListener();
+            if (listener != null)
+            {
+                try
+                {
+                    listener.tierInstalled(tier, results);
+                }
+                catch (RuntimeException e)
+                {
+                    log.error("Tier listener failed for tier " + tier, e);
+                }
+            }
+        }
+        notifyDeployed(results);
+    }
+
+    private void notifyDeployed(List<InstallResult> results)
+    {
+        if (deployListeners.isEmpty())
+        {
+            return;
+        }
+        final List<File> files = new ArrayList<>();
+        for (InstallResult result : results)
+        {
+            if (result.getStatus() == InstallResult.Status.INSTALLED)
+            {
+                files.add(new File(outputBase, resourceToFilename(result.getResource())));
+            }
+        }
+        if (files.isEmpty())
+        {
+            return;
+        }
+        for (DeployListener listener : deployListeners)
+        {
+            try
+            {
+                listener.deployed(files);
+            }
+            catch (RuntimeException e)
+            {
+                log.error("Deploy listener failed", e);
+            }
+        }
+    }
 
-        for (String resource : entries)
+    private void syncInstalled(List<InstallResult> results) throws IOException
+    {
+        final Set<Path> dirs = new LinkedHashSet<>();
+        for (InstallResult result : results)
         {
-            installResource(resource, filtered.contains(resource));
+            if (result.getStatus() == InstallResult.Status.INSTALLED)
+            {
+                final Path path = new File(outputBase, resourceToFilename(result.getResource())).toPath();
+                try (FileChannel channel = FileChannel.open(path, WRITE))
+                {
+                    channel.force(true);
+                }
+                dirs.add(path.getParent());
+            }
+        }
+        for (Path dir : dirs)
+        {
+            // Makes the renames into place durable, where the platform can sync a directory
+            try (FileChannel channel = FileChannel.open(dir, READ))
+            {
+                channel.force(true);
+            }
+            catch (IOException ignored)
+            {
+            }
         }
     }
 
@@ -143,12 +617,67 @@ public class ResourceDeployer implements Runnable
     {
         init();
         resourceProps.clear();
-        installResource(resource, isResourceFilterable(resource));
+        installResource(resource, catalog.isFilterable(resource));
     }
 
     public void installResource(String resource, boolean filtered) throws IOException
+    {
+        doInstallResource(resource, filtered);
+    }
+
+    private InstallResult tryInstallResource(String resource, boolean filtered)
+    {
+        return tryInstallResource(resource, filtered, null);
+    }
+
+    private InstallResult tryInstallResource(String resource, boolean filtered, StagedBatch<Rendered> batch)
+    {
+        try
+        {
+            return doInstallResource(resource, filtered, batch);
+        }
+        catch (Throwable e)
+        {
+            log.error("Could not install resource: " + resource, e);
+            return InstallResult.failed(resource, e);
+        }
+    }
+
+    private InstallResult doInstallResource(String resource, boolean filtered) throws IOException
+    {
+        return doInstallResource(resource, filtered, null);
+    }
+
+    /**
+     * @param batch where to leave the rendered file for {@link #commitBatch}, or {@code null}
+     *              to move it into place right away
+     */
+    private InstallResult doInstallResource(String resource, boolean filtered, StagedBatch<Rendered> batch)
+        throws IOException
+    {
+        final long start = System.nanoTime();
+        try
+        {
+            final InstallResult result = renderResource(resource, filtered, batch);
+            final StagedFile<Rendered> stagedFile = batch != null ? batch.get(resource) : null;
+            final long bytes = result.isFailed() ? 0
+                : stagedFile != null ? stagedFile.getSize()
+                : new File(outputBase, resourceToFilename(resource)).length();
+            metrics.recordInstall(result, System.nanoTime() - start, bytes);
+            return result;
+        }
+        catch (IOException | RuntimeException e)
+        {
+            metrics.recordInstall(InstallResult.failed(resource, e), System.nanoTime() - start, 0);
+            throw e;
+        }
+    }
+
+    private InstallResult renderResource(String resource, boolean filtered, StagedBatch<Rendered> batch)
+        throws IOException
     {
         clearResourceKeys(resource);
+        final PropertySnapshot props = propertyResolver.snapshot();
 
         final URL rez = Resources.getResource(resource);
         final String filename = resourceToFilename(resource);
@@ -160,45 +689,198 @@ public class ResourceDeployer implements Runnable
             dir.mkdirs();
         }
 
-        if (!filtered)
+        InstallResult result = InstallResult.installed(resource);
+        final Set<String> used = new HashSet<>();
+        String fingerprint = null;
+        boolean keepStaged = false;
+        final Path staged = staging.create();
+        try
         {
-            try (FileOutputStream output = new FileOutputStream(outputFile))
+            String hash;
+            if (!filtered)
             {
-                Resources.copy(rez, output);
+                // Unfiltered resources are identified without reading them, and copied channel to channel
+                hash = catalog.getIndexedHash(resource);
+                if (hash == null)
+                {
+                    hash = ResourceCopier.fingerprint(rez);
+                }
+                if (hash != null)
+                {
+                    if (deployIndex.isUnchanged(filename, outputFile, hash))
+                    {
+                        return InstallResult.unchanged(resource);
+                    }
+                    final long start = System.nanoTime();
+                    ResourceCopier.copy(rez, staged, preallocateFiles);
+                    metrics.write.recordSince(start);
+                }
+                else
+                {
+                    final long start = System.nanoTime();
+                    try (HashingOutputStream out = staging.open(staged))
+                    {
+                        Resources.copy(rez, out);
+                        hash = out.hash().toString();
+                    }
+                    metrics.write.recordSince(start);
+                }
             }
-        }
-        else
-        {
-            try (final FileWriter w = new FileWriter(outputFile))
+            else
             {
-                String doc = Resources.toString(rez, Charset.defaultCharset());
-
-                // We first try with ${prop}
-                doc = filterResource(resource, pattern1, doc);
-                // Then with @@prop@@
-                doc = filterResource(resource, pattern2, doc);
-
-                // Ultimately we do FreeMarker processing
-                try
+                // A resource rendered before from the same source and properties is left alone
+                fingerprint = renderCache != null ? fingerprint(resource, rez) : null;
+                final Set<String> cachedKeys = fingerprint != null
+                    ? renderCache.verify(resource, fingerprint, outputFile, props::getProperty)
+                    : null;
+                if (cachedKeys != null)
                 {
-                    doc = filterText(resource, doc);
+                    registerResourceKeys(resource, cachedKeys, props);
+                    return InstallResult.unchanged(resource);
                 }
-                catch (TemplateException e)
+
+                // ${prop} and @@prop@@ placeholders are replaced in a single streaming pass
+                final PlaceholderFilter filter = newPlaceholderFilter(props);
+                final long start = System.nanoTime();
+                try (Reader in = new InputStreamReader(rez.openStream(), Charset.defaultCharset());
+                     HashingOutputStream hashing = staging.open(staged);
+                     Writer out = staging.newWriter(hashing))
                 {
-                    log.error("Could not apply template", e);
+                    filter.begin(out);
+                    final char[] buf = new char[FILTER_CHUNK_SIZE];
+                    int n;
+                    while ((n = in.read(buf)) != -1)
+                    {
+                        filter.write(buf, 0, n);
+                    }
+                    filter.end();
+                    out.flush();
+                    hash = hashing.hash().toString();
                 }
+                metrics.placeholder.recordSince(start);
+                used.addAll(filter.getKeys());
+                used.addAll(filter.getUnresolvedKeys());
 
-                // Write the filtered resource
-                try
+                // Ultimately we do FreeMarker processing, if there is anything to process
+                if (filter.needsTemplate())
                 {
-                    w.write(doc);
-                    w.flush();
+                    final String doc = new String(Files.readAllBytes(staged), Charset.defaultCharset());
+                    try
+                    {
+                        final String text = filterText(resource, doc, used, props);
+                        try (HashingOutputStream hashing = staging.open(staged);
+                             Writer out = staging.newWriter(hashing))
+                        {
+                            out.write(text);
+                            out.flush();
+                            hash = hashing.hash().toString();
+                        }
+                    }
+                    catch (TemplateException e)
+                    {
+                        log.error("Could not apply template", e);
+                        result = InstallResult.failed(resource, e);
+                    }
                 }
-                catch (Throwable e)
+                registerResourceKeys(resource, used, props);
+                if (result.isFailed() && (batch != null || outputFile.exists()))
                 {
-                    log.error("Could not write file: " + outputFile.getAbsolutePath(), e);
+                    // A half rendered file never replaces the output deployed before. With
+                    // nothing deployed yet, the placeholder-filtered text is written instead
+                    updateRenderCache(result, fingerprint, outputFile, used, props);
+                    return result;
                 }
             }
+
+            // Leave the output alone if it would not change, otherwise move it into place
+            if (deployIndex.isUnchanged(filename, outputFile, hash))
+            {
+                result = InstallResult.unchanged(resource);
+                updateRenderCache(result, fingerprint, outputFile, used, props);
+                return result;
+            }
+            if (batch != null)
+            {
+                batch.add(resource, new StagedFile<>(staged, outputFile, filename, hash,
+                                                     new Rendered(result, fingerprint, used, props)));
+                keepStaged = true;
+                return result;
+            }
+            final long start = System.nanoTime();
+            StagingArea.commit(staged, outputFile);
+            metrics.write.recordSince(start);
+            deployIndex.update(filename, outputFile, hash);
+            updateRenderCache(result, fingerprint, outputFile, used, props);
+        }
+        catch (IOException e)
+        {
+            log.error("Could not write file: " + outputFile.getAbsolutePath(), e);
+            result = InstallResult.failed(resource, e);
+            updateRenderCache(result, fingerprint, outputFile, used, props);
+        }
+        finally
+        {
+            if (!keepStaged)
+            {
+                Files.deleteIfExists(staged);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Moves the files of a batch into place and records them as deployed.
+     */
+    private void commitBatch(StagedBatch<Rendered> batch)
+    {
+        batch.commit(this::getTier, new StagedBatch.Listener<Rendered>()
+        {
+            @Override
+            public void committed(StagedFile<Rendered> f, long nanos)
+            {
+                final Rendered r = f.getState();
+                metrics.write.record(nanos);
+                deployIndex.update(f.getFilename(), f.getOutputFile(), f.getHash());
+                updateRenderCache(r.result, r.fingerprint, f.getOutputFile(), r.keys, r.props);
+            }
+
+            @Override
+            public void failed(StagedFile<Rendered> f, IOException error)
+            {
+                final Rendered r = f.getState();
+                updateRenderCache(InstallResult.failed(r.result.getResource(), error), r.fingerprint,
+                                  f.getOutputFile(), r.keys, r.props);
+            }
+        });
+    }
+
+    private int getTier(String filename)
+    {
+        final InstallTiers tiers = installTiers;
+        return tiers != null ? tiers.getTier(filename) : 0;
+    }
+
+    private String fingerprint(String resource, URL rez) throws IOException
+    {
+        final String hash = catalog.getIndexedHash(resource);
+        return hash != null ? hash : ResourceCopier.fingerprint(rez);
+    }
+
+    private void updateRenderCache(InstallResult result, String fingerprint, File outputFile, Set<String> keys,
+                                   PropertySnapshot props)
+    {
+        final RenderCache cache = renderCache;
+        if (cache == null || fingerprint == null)
+        {
+            return;
+        }
+        if (result.isFailed())
+        {
+            cache.remove(result.getResource());
+        }
+        else
+        {
+            cache.update(result.getResource(), fingerprint, outputFile, keys, props::getProperty);
         }
     }
 
@@ -210,13 +892,23 @@ public class ResourceDeployer implements Runnable
         {
             outputFile.delete();
         }
+        templateCache.evict(resource);
+        metrics.removeResource(resource);
+        deployIndex.remove(filename);
+        if (renderCache != null)
+        {
+            renderCache.remove(resource);
+        }
+        saveIndexes();
     }
 
-    private boolean isResourceFilterable(String resource)
+    private void saveIndexes()
     {
-        return !filterExclusions
-            .stream()
-            .anyMatch(e -> antPathMatcher.match(e, resourceToFilename(resource)));
+        deployIndex.trySave();
+        if (renderCache != null)
+        {
+            renderCache.trySave();
+        }
     }
 
     private String resourceToFilename(String resource)
@@ -224,43 +916,40 @@ public class ResourceDeployer implements Runnable
         return resource.substring(RESOURCE_PREFIX.length() + 1);
     }
 
-    private String filterText(String resource, String doc) throws IOException, TemplateException
+    private String filterText(String resource, String doc, Set<String> used, PropertySnapshot props)
+        throws IOException, TemplateException
     {
-        BeansWrapper bw = new DefaultObjectWrapper();
-        PropertyModel mm = new PropertyModel(propertyResolver, bw);
-        StringTemplateLoader loader = new StringTemplateLoader();
-        loader.putTemplate(resource, doc, System.currentTimeMillis());
-        Configuration c = new Configuration(Configuration.VERSION_2_3_23);
-        c.setTemplateLoader(loader);
-        c.setTagSyntax(Configuration.SQUARE_BRACKET_TAG_SYNTAX);
-        Template t = c.getTemplate(resource);
+        final long start = System.nanoTime();
+        PropertyModel mm = new PropertyModel(props, templateCache.getObjectWrapper());
+        Template t = templateCache.getTemplate(resource, doc);
 
         StringWriter sw = new StringWriter();
-        t.process(mm, sw);
-        registerResourceKeys(resource, mm.getKeys());
+        try
+        {
+            t.process(mm, sw);
+        }
+        finally
+        {
+            // Keys read before a failure count too: fixing one of them redeploys the resource
+            used.addAll(mm.getKeys());
+            used.addAll(mm.getUnresolvedKeys());
+        }
+        metrics.template.recordSince(start);
         return sw.toString();
     }
 
-    private String filterResource(String resource, Pattern pattern, String s) throws IOException
+    private PlaceholderFilter newPlaceholderFilter(PropertySnapshot props)
     {
-        Set<String> keys = new HashSet<>();
-        Matcher m = pattern.matcher(s);
-        StringBuffer sb = new StringBuffer(s.length() * 2);
-
-        while (m.find())
-        {
-            String key = m.group(1);
-            String val = getConfigProperty(key);
-            if (val != null)
-            {
-                m.appendReplacement(sb, val);
-                keys.add(key);
-            }
-        }
-        registerResourceKeys(resource, keys);
+        return new PlaceholderFilter(props::getProperty);
+    }
 
-        m.appendTail(sb);
-        return sb.toString();
+    /**
+     * @return the deployed resources that would be redeployed if {@code key} changed,
+     * was added or was removed
+     */
+    public Set<String> getDependentResources(String key)
+    {
+        return resourceProps.getResources(key);
     }
 
     public boolean isMutable(String key)
@@ -268,10 +957,16 @@ public class ResourceDeployer implements Runnable
         return propertyResolver.isMutable(key);
     }
 
-    private void registerResourceKeys(String resource, Set<String> keys)
+    private void registerResourceKeys(String resource, Set<String> keys, PropertySnapshot props)
     {
-        TreeSet<String> _keys = keys.stream()
-            .filter(this::isMutable)
+        // A value made from other properties changes along with them
+        final Set<String> all = new HashSet<>(keys);
+        for (String key : keys)
+        {
+            all.addAll(props.getDependencies(key));
+        }
+        TreeSet<String> _keys = all.stream()
+            .filter(props::isMutable)
             .collect(Collectors.toCollection(TreeSet::new));
         resourceProps.putAll(resource, _keys);
     }
@@ -281,125 +976,301 @@ public class ResourceDeployer implements Runnable
         resourceProps.removeAll(resource);
     }
 
-    private String getConfigProperty(String key)
-    {
-        return propertyResolver.getProperty(key);
-    }
-
     public void startConfigMonitoring() throws IOException
     {
-        running = true;
         init();
-        t = new Thread(this);
-        t.start();
+        synchronized (monitorLock)
+        {
+            monitoring = true;
+        }
+        if (context != null)
+        {
+            changeScheduler = context.getDispatcher();
+        }
+        else
+        {
+            changeScheduler = new ScheduledThreadPoolExecutor(1, r -> {
+                Thread thread = new Thread(r, "q2-deployer-changes");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        changeCoalescer = new ChangeCoalescer(changeScheduler, this::scanChanges, changeQuietPeriod, changeMaxDelay);
+        if (changeDetector == null)
+        {
+            changeDetector = context != null
+                ? new WatchServiceChangeDetector(context.getChangeMonitor())
+                : new WatchServiceChangeDetector();
+        }
+        List<Path> sources = new ArrayList<>();
+        for (String trackedSource : propertyResolver.getTrackedSources())
+        {
+            sources.add(Paths.get(trackedSource));
+        }
+        changeDetector.start(sources, this::onSourceChanged);
+        if (propertyResolver instanceof PropertyChangeSource)
+        {
+            changeSource = (PropertyChangeSource) propertyResolver;
+            changeSource.addPropertyChangeListener(propertyChangeListener);
+        }
     }
 
     public void stopConfigMonitoring()
     {
-        if (t != null)
+        if (changeSource != null)
         {
-            running = false;
-            t.interrupt();
-            try
-            {
-                t.join();
-            }
-            catch (InterruptedException ignored)
-            {
-            }
+            changeSource.removePropertyChangeListener(propertyChangeListener);
+            changeSource = null;
+        }
+        if (changeDetector != null)
+        {
+            changeDetector.stop();
+        }
+        final ChangeCoalescer coalescer = changeCoalescer;
+        if (coalescer != null)
+        {
+            changeCoalescer = null;
+            coalescer.cancel();
+        }
+        waveRunner.stop();
+        if (changeScheduler != null && context == null)
+        {
+            changeScheduler.shutdown();
+        }
+        synchronized (monitorLock)
+        {
+            monitoring = false;
+            monitorLock.notifyAll();
+        }
+    }
+
+    private void onSourceChanged(Path source, long changedAt)
+    {
+        metrics.recordChangeEvent(Math.max(0, System.currentTimeMillis() - changedAt));
+        sourcesChanged.set(true);
+        signalChange();
+    }
+
+    private void onPropertiesChanged(PropertyChangeSet changes)
+    {
+        if (changes.isEmpty())
+        {
+            return;
+        }
+        pushedKeys.addAll(changes.getKeys());
+        if (Thread.currentThread() != scanningThread)
+        {
+            // Changes found by our own scan are drained by the pass that is running it
+            metrics.recordChangeEvent();
+            signalChange();
         }
     }
 
+    private void signalChange()
+    {
+        changePendingSince.compareAndSet(0, System.nanoTime());
+        final ChangeCoalescer coalescer = changeCoalescer;
+        if (coalescer != null)
+        {
+            coalescer.signal();
+        }
+        else
+        {
+            scanChanges();
+        }
+    }
+
+    /**
+     * Monitors the configuration files until {@link #stopConfigMonitoring()} is called or
+     * the calling thread is interrupted, as the monitor loop run here used to. Changes are
+     * picked up by the shared watch thread and redeployed on the dispatcher; the calling
+     * thread only waits. Monitoring is started first unless it already is.
+     */
     @Override
     public void run()
     {
-        while(running)
+        synchronized (monitorLock)
         {
-            WatchService watcher=null;
-            try
+            if (!monitoring)
             {
-                watcher = FileSystems.getDefault().newWatchService();
-                Set<String> trackedSources = propertyResolver.getTrackedSources();
-                List<Path> files = new ArrayList<>();
-                Set<Path> dirs = new HashSet<>();
-                for (String trackedSource : trackedSources)
+                try
                 {
-                    final File file = new File(trackedSource);
-                    if (file.exists())
-                    {
-                        dirs.add(file.getParentFile().toPath());
-                        files.add(file.toPath());
-                    }
+                    startConfigMonitoring();
                 }
-                for (Path dir : dirs)
+                catch (IOException e)
                 {
-                    dir.register(watcher, new WatchEvent.Kind[]{ENTRY_MODIFY, ENTRY_DELETE, ENTRY_CREATE},
-                                 SensitivityWatchEventModifier.HIGH);
+                    log.error("Could not start config monitoring", e);
+                    return;
                 }
-
-                while (running)
+            }
+            try
+            {
+                while (monitoring)
                 {
-                    WatchKey key;
-                    try
-                    {
-                        key = watcher.take();
-                    }
-                    catch (InterruptedException ignored)
-                    {
-                        break;
-                    }
+                    monitorLock.wait();
+                }
+                return;
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+        stopConfigMonitoring();
+    }
 
-                    for (WatchEvent<?> event : key.pollEvents())
+    /**
+     * Scans the tracked sources once and redeploys every resource depending on a property
+     * that changed since the previous scan, or that the resolver reported as changed.
+     */
+    public void scanChanges()
+    {
+        if (waveRunner.deferIfBusy())
+        {
+            // Picked up once the waves in flight are done
+            return;
+        }
+        final long since = changePendingSince.getAndSet(0);
+        boolean inWaves = false;
+        try
+        {
+            Set<String> affectedResources;
+            final long start = System.nanoTime();
+            synchronized (resourceProps)
+            {
+                if (changeSource != null)
+                {
+                    // The resolver pushes what changed, scanning included; a pass triggered by
+                    // pushed changes alone has nothing to scan
+                    if (sourcesChanged.getAndSet(false) || pushedKeys.isEmpty())
                     {
-                        WatchEvent.Kind<?> kind = event.kind();
-                        if (kind == OVERFLOW)
+                        scanningThread = Thread.currentThread();
+                        try
                         {
-                            continue;
+                            propertyResolver.scanPropertyChanges(resourceProps);
                         }
-                        Path dir = (Path)key.watchable();
-                        Path filename = ((WatchEvent<Path>) event).context();
-                        Path path = dir.resolve(filename);
-
-                        if(files.contains(path))
+                        finally
                         {
-                            Set<String> affectedResources = propertyResolver.scanPropertyChanges(resourceProps);
-                            for (String resource : affectedResources)
-                            {
-                                installResource(resource, true);
-                            }
+                            scanningThread = null;
                         }
                     }
-                    boolean valid = key.reset();
-                    if (!valid)
-                    {
-                        break;
-                    }
+                    affectedResources = propertyResolver.calculateAffectedResources(drainPushedKeys(), resourceProps);
                 }
-            }
-            catch (Throwable e)
-            {
-                log.error("Oops", e);
-                try
-                {
-                    Thread.sleep(5000);
-                }
-                catch (InterruptedException ignored)
+                else
                 {
+                    sourcesChanged.set(false);
+                    affectedResources = propertyResolver.scanPropertyChanges(resourceProps);
                 }
             }
-            finally
+            metrics.scan.recordSince(start);
+            final RedeployWaves waves = redeployWaves;
+            if (waves == null || affectedResources.isEmpty())
             {
-                if(watcher!=null)
-                {
-                    try
-                    {
-                        watcher.close();
-                    }
-                    catch (IOException ignored)
-                    {
-                    }
-                }
+                redeploy(affectedResources);
+                saveIndexes();
+            }
+            else
+            {
+                inWaves = true;
+                redeployInWaves(affectedResources, waves, since);
+            }
+        }
+        catch (Throwable e)
+        {
+            log.error("Could not redeploy changed resources", e);
+        }
+        finally
+        {
+            if (!inWaves)
+            {
+                metrics.recordRedeploy(since != 0 ? System.nanoTime() - since : -1);
             }
         }
     }
+
+    private List<String> drainPushedKeys()
+    {
+        final List<String> keys = new ArrayList<>();
+        for (Iterator<String> it = pushedKeys.iterator(); it.hasNext(); )
+        {
+            keys.add(it.next());
+            it.remove();
+        }
+        return keys;
+    }
+
+    private List<InstallResult> redeploy(Collection<String> resources)
+    {
+        final StagedBatch<Rendered> batch = batchCommit ? new StagedBatch<>() : null;
+        final List<InstallResult> results = new ArrayList<>();
+        for (String resource : resources)
+        {
+            results.add(tryInstallResource(resource, true, batch));
+        }
+        if (batch != null)
+        {
+            commitBatch(batch);
+        }
+        notifyDeployed(results);
+        return results;
+    }
+
+    /**
+     * Starts redeploying the resources in waves. The first wave runs right away, the others
+     * are scheduled after a pause, leaving the scheduler free for other work meanwhile.
+     */
+    private void redeployInWaves(Collection<String> resources, RedeployWaves waves, long since)
+    {
+        final List<List<String>> split = waves.split(resources);
+        final List<Runnable> tasks = new ArrayList<>();
+        for (int i = 0; i < split.size(); i++)
+        {
+            final int wave = i + 1;
+            final List<String> wavedResources = split.get(i);
+            tasks.add(() -> redeployWave(wave, split.size(), wavedResources, waves.getListener()));
+        }
+        waveRunner.start(changeScheduler, tasks, waves.getDelay(), () -> {
+            saveIndexes();
+            metrics.recordRedeploy(since != 0 ? System.nanoTime() - since : -1);
+        });
+    }
+
+    private void redeployWave(int wave, int waves, List<String> resources, RedeployWaves.Listener listener)
+    {
+        final long start = System.nanoTime();
+        final List<InstallResult> results = redeploy(resources);
+        final long nanos = metrics.wave.recordSince(start);
+        log.info("Redeployed wave " + wave + "/" + waves + " (" + results.size() + " resources) in "
+                     + TimeUnit.NANOSECONDS.toMillis(nanos) + " ms");
+        if (listener != null)
+        {
+            try
+            {
+                listener.waveRedeployed(wave, waves, results, nanos);
+            }
+            catch (RuntimeException e)
+            {
+                log.error("Wave listener failed for wave " + wave, e);
+            }
+        }
+    }
+
+    /**
+     * What is left to record about a staged resource once it is committed.
+     */
+    private static class Rendered
+    {
+        private final InstallResult result;
+        private final String fingerprint;
+        private final Set<String> keys;
+        private final PropertySnapshot props;
+
+        Rendered(InstallResult result, String fingerprint, Set<String> keys, PropertySnapshot props)
+        {
+            this.result = result;
+            this.fingerprint = fingerprint;
+            this.keys = keys;
+            this.props = props;
+        }
+    }
 }
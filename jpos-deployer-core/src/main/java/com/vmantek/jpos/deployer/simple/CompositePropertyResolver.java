@@ -0,0 +1,346 @@
+package com.vmantek.jpos.deployer.simple;
+
+import com.google.common.collect.Multimap;
+import com.vmantek.jpos.deployer.spi.PropertyChangeListener;
+import com.vmantek.jpos.deployer.spi.PropertyChangeSet;
+import com.vmantek.jpos.deployer.spi.PropertyChangeSource;
+import com.vmantek.jpos.deployer.spi.PropertyResolver;
+import com.vmantek.jpos.deployer.spi.PropertySnapshot;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Resolves properties through several resolvers (a properties file, system properties, a
+ * secrets file...), the first layer holding a key winning. Every key looked up is cached
+ * along with the layer it came from, so when a layer reports changed keys only those it
+ * could actually provide are evaluated again; keys taken from a layer before it keep
+ * their cached value.
+ * <p>
+ * Changes are pushed to listeners as this resolver learns about them. Layers that push
+ * their own changes are followed as they happen; the others are rescanned by
+ * {@link #scanPropertyChanges}, after which every cached key is checked against them.
+ * <p>
+ * Changes are judged against the value last handed out for a key by any snapshot, not only
+ * the current one, so a key first read by a render still holding an older snapshot is
+ * reported as well.
+ */
+public class CompositePropertyResolver implements PropertyResolver, PropertyChangeSource
+{
+    private static final Logger log = LoggerFactory.getLogger(CompositePropertyResolver.class);
+
+    private final List<PropertyResolver> layers;
+    private final List<PropertyChangeListener> listeners = new CopyOnWriteArrayList<>();
+    private final ThreadLocal<Set<String>> scanned = new ThreadLocal<>();
+    private final Object lock = new Object();
+    private final ConcurrentMap<String, Resolution> seen = new ConcurrentHashMap<>();
+    private volatile Layers state;
+
+    public CompositePropertyResolver(PropertyResolver... layers)
+    {
+        this(Arrays.asList(layers));
+    }
+
+    /**
+     * @param layers resolvers in order of precedence, highest first
+     */
+    public CompositePropertyResolver(List<PropertyResolver> layers)
+    {
+        this.layers = new ArrayList<>(layers);
+        state = new Layers(0, snapshots(), seen);
+        for (int i = 0; i < this.layers.size(); i++)
+        {
+            final PropertyResolver layer = this.layers.get(i);
+            if (layer instanceof PropertyChangeSource)
+            {
+                final int index = i;
+                ((PropertyChangeSource) layer).addPropertyChangeListener(changes -> update(index, changes.getKeys()));
+            }
+        }
+    }
+
+    public List<PropertyResolver> getLayers()
+    {
+        return Collections.unmodifiableList(layers);
+    }
+
+    @Override
+    public void initialize() throws IOException
+    {
+        for (PropertyResolver layer : layers)
+        {
+            layer.initialize();
+        }
+        synchronized (lock)
+        {
+            state = new Layers(state.version + 1, snapshots(), seen);
+        }
+    }
+
+    @Override
+    public String getProperty(String key)
+    {
+        return state.getProperty(key);
+    }
+
+    @Override
+    public boolean isMutable(String key)
+    {
+        return state.isMutable(key);
+    }
+
+    @Override
+    public PropertySnapshot snapshot()
+    {
+        return state;
+    }
+
+    /**
+     * @return the layer {@code key} currently resolves from, or -1 if none holds it
+     */
+    public int getLayerOf(String key)
+    {
+        final Resolution r = state.resolve(key);
+        return r.value != null ? r.layer : -1;
+    }
+
+    @Override
+    public Set<String> getTrackedSources() throws IOException
+    {
+        Set<String> sources = new LinkedHashSet<>();
+        for (PropertyResolver layer : layers)
+        {
+            sources.addAll(layer.getTrackedSources());
+        }
+        return sources;
+    }
+
+    @Override
+    public Set<String> scanPropertyChanges(Multimap<String, String> resourceProps) throws IOException
+    {
+        final Set<String> changedProperties = new HashSet<>();
+        scanned.set(changedProperties);
+        try
+        {
+            boolean pulled = false;
+            for (PropertyResolver layer : layers)
+            {
+                layer.scanPropertyChanges(resourceProps);
+                pulled |= !(layer instanceof PropertyChangeSource);
+            }
+            if (pulled)
+            {
+                // Layers that do not say what changed: check every key looked up so far
+                update(-1, new ArrayList<>(seen.keySet()));
+            }
+        }
+        finally
+        {
+            scanned.remove();
+        }
+        return calculateAffectedResources(changedProperties, resourceProps);
+    }
+
+    @Override
+    public void addPropertyChangeListener(PropertyChangeListener listener)
+    {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void removePropertyChangeListener(PropertyChangeListener listener)
+    {
+        listeners.remove(listener);
+    }
+
+    private PropertySnapshot[] snapshots()
+    {
+        final PropertySnapshot[] snapshots = new PropertySnapshot[layers.size()];
+        for (int i = 0; i < snapshots.length; i++)
+        {
+            snapshots[i] = layers.get(i).snapshot();
+        }
+        return snapshots;
+    }
+
+    /**
+     * @param layer the layer that changed, or -1 if any of them may have
+     * @param keys  the keys that may have changed
+     */
+    private void update(int layer, Collection<String> keys)
+    {
+        final List<String> added = new ArrayList<>();
+        final List<String> removed = new ArrayList<>();
+        final List<String> changed = new ArrayList<>();
+        synchronized (lock)
+        {
+            final Layers old = state;
+            final PropertySnapshot[] snapshots;
+            if (layer >= 0)
+            {
+                snapshots = old.layers.clone();
+                snapshots[layer] = layers.get(layer).snapshot();
+            }
+            else
+            {
+                snapshots = snapshots();
+            }
+            final Layers next = new Layers(old.version + 1, snapshots, seen);
+            final Set<String> candidates = new HashSet<>(keys);
+            if (layer >= 0)
+            {
+                for (Map.Entry<String, Resolution> e : old.resolved.entrySet())
+                {
+                    if (!candidates.contains(e.getKey()) || e.getValue().layer < layer)
+                    {
+                        next.resolved.put(e.getKey(), e.getValue());
+                    }
+                }
+            }
+            for (String key : candidates)
+            {
+                final Resolution last = seen.get(key);
+                final Resolution before = last != null ? last : old.resolve(key);
+                if (layer >= 0 && before.layer < layer)
+                {
+                    continue;
+                }
+                final String value = next.resolve(key).value;
+                if (before.value == null && value != null)
+                {
+                    added.add(key);
+                }
+                else if (before.value != null && value == null)
+                {
+                    removed.add(key);
+                }
+                else if (!Objects.equals(before.value, value))
+                {
+                    changed.add(key);
+                }
+            }
+            state = next;
+        }
+        if (added.isEmpty() && removed.isEmpty() && changed.isEmpty())
+        {
+            return;
+        }
+        final PropertyChangeSet changes = new PropertyChangeSet(added, removed, changed);
+        final Set<String> collecting = scanned.get();
+        if (collecting != null)
+        {
+            collecting.addAll(changes.getKeys());
+        }
+        for (PropertyChangeListener listener : listeners)
+        {
+            try
+            {
+                listener.propertiesChanged(changes);
+            }
+            catch (RuntimeException e)
+            {
+                log.error("Property change listener failed", e);
+            }
+        }
+    }
+
+    private static final class Resolution
+    {
+        private final int layer;
+        private final String value;
+
+        Resolution(int layer, String value)
+        {
+            this.layer = layer;
+            this.value = value;
+        }
+    }
+
+    /**
+     * The snapshots of all layers at one point, and the keys resolved through them so far.
+     */
+    private static final class Layers implements PropertySnapshot
+    {
+        private final long version;
+        private final PropertySnapshot[] layers;
+        private final ConcurrentMap<String, Resolution> resolved = new ConcurrentHashMap<>();
+        private final ConcurrentMap<String, Resolution> seen;
+        private final Resolution missing;
+
+        /**
+         * @param seen where every key looked up is recorded with its resolution, across
+         *             snapshots
+         */
+        Layers(long version, PropertySnapshot[] layers, ConcurrentMap<String, Resolution> seen)
+        {
+            this.version = version;
+            this.layers = layers;
+            this.seen = seen;
+            this.missing = new Resolution(layers.length, null);
+        }
+
+        Resolution resolve(String key)
+        {
+            final Resolution r = resolved.get(key);
+            return r != null ? r : resolved.computeIfAbsent(key, this::lookup);
+        }
+
+        private Resolution lookup(String key)
+        {
+            Resolution r = missing;
+            for (int i = 0; i < layers.length; i++)
+            {
+                final String value = layers[i].getProperty(key);
+                if (value != null)
+                {
+                    r = new Resolution(i, value);
+                    break;
+                }
+            }
+            seen.put(key, r);
+            return r;
+        }
+
+        @Override
+        public long getVersion()
+        {
+            return version;
+        }
+
+        @Override
+        public String getProperty(String key)
+        {
+            return resolve(key).value;
+        }
+
+        @Override
+        public boolean isMutable(String key)
+        {
+            final Resolution r = resolve(key);
+            if (r.value != null)
+            {
+                return layers[r.layer].isMutable(key);
+            }
+            for (PropertySnapshot layer : layers)
+            {
+                if (!layer.isMutable(key))
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public Set<String> getDependencies(String key)
+        {
+            final Resolution r = resolve(key);
+            return r.value != null ? layers[r.layer].getDependencies(key) : Collections.<String>emptySet();
+        }
+    }
+}
@@ -0,0 +1,476 @@
+package com.vmantek.jpos.deployer.simple;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.Multimap;
+import com.vmantek.jpos.deployer.spi.PropertyChangeListener;
+import com.vmantek.jpos.deployer.spi.PropertyChangeSet;
+import com.vmantek.jpos.deployer.spi.PropertyChangeSource;
+import com.vmantek.jpos.deployer.spi.PropertyResolver;
+import com.vmantek.jpos.deployer.spi.PropertySnapshot;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Expands references to other properties inside the values of another resolver:
+ * {@code url=http://${host}:${port:8000}/} takes {@code host} and {@code port} from the
+ * same resolver, {@code port} falling back to {@code 8000} when missing. Defaults may
+ * hold references themselves; a reference left without a value nor a default is kept as
+ * written. The {@code env:} prefix of builtins is part of the key, so
+ * {@code ${env:user.home:/tmp}} works as expected.
+ * <p>
+ * Every expanded value is kept along with the keys it was made from, transitively. When
+ * some keys change only the values made from them are expanded again, and those are
+ * reported as changed too. A value referring back to itself, directly or not, is logged
+ * with the chain of keys involved; references to the keys of such a cycle are left as
+ * written, and the values are expanded again once one of those keys changes.
+ */
+public class InterpolatingPropertyResolver implements PropertyResolver, PropertyChangeSource
+{
+    private static final Logger log = LoggerFactory.getLogger(InterpolatingPropertyResolver.class);
+
+    private final PropertyResolver delegate;
+    private final List<PropertyChangeListener> listeners = new CopyOnWriteArrayList<>();
+    private final ThreadLocal<Set<String>> scanned = new ThreadLocal<>();
+    private final Object lock = new Object();
+    private volatile Expansions state;
+
+    public InterpolatingPropertyResolver(PropertyResolver delegate)
+    {
+        this.delegate = delegate;
+        if (delegate instanceof PropertyChangeSource)
+        {
+            ((PropertyChangeSource) delegate).addPropertyChangeListener(changes -> update(changes.getKeys()));
+        }
+        state = new Expansions(0, delegate.snapshot());
+    }
+
+    public PropertyResolver getDelegate()
+    {
+        return delegate;
+    }
+
+    @Override
+    public void initialize() throws IOException
+    {
+        delegate.initialize();
+        synchronized (lock)
+        {
+            state = new Expansions(state.version + 1, delegate.snapshot());
+        }
+    }
+
+    @Override
+    public String getProperty(String key)
+    {
+        return state.getProperty(key);
+    }
+
+    @Override
+    public boolean isMutable(String key)
+    {
+        return state.isMutable(key);
+    }
+
+    @Override
+    public Set<String> getDependencies(String key)
+    {
+        return state.getDependencies(key);
+    }
+
+    @Override
+    public PropertySnapshot snapshot()
+    {
+        return state;
+    }
+
+    @Override
+    public Set<String> getTrackedSources() throws IOException
+    {
+        return delegate.getTrackedSources();
+    }
+
+    @Override
+    public Set<String> scanPropertyChanges(Multimap<String, String> resourceProps) throws IOException
+    {
+        final Set<String> changedProperties = new HashSet<>();
+        scanned.set(changedProperties);
+        try
+        {
+            final Set<String> affected = new HashSet<>(delegate.scanPropertyChanges(resourceProps));
+            if (!(delegate instanceof PropertyChangeSource))
+            {
+                // The delegate does not say what changed: check every value expanded so far
+                update(null);
+            }
+            affected.addAll(calculateAffectedResources(changedProperties, resourceProps));
+            return affected;
+        }
+        finally
+        {
+            scanned.remove();
+        }
+    }
+
+    @Override
+    public void addPropertyChangeListener(PropertyChangeListener listener)
+    {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void removePropertyChangeListener(PropertyChangeListener listener)
+    {
+        listeners.remove(listener);
+    }
+
+    /**
+     * @param keys the keys that changed in the delegate, or null if any of them may have
+     */
+    private void update(Collection<String> keys)
+    {
+        final List<String> added = new ArrayList<>();
+        final List<String> removed = new ArrayList<>();
+        final List<String> changed = new ArrayList<>();
+        synchronized (lock)
+        {
+            final Expansions old = state;
+            final Expansions next = new Expansions(old.version + 1, delegate.snapshot());
+            final Set<String> stale;
+            if (keys != null)
+            {
+                stale = new HashSet<>(keys);
+                for (String key : keys)
+                {
+                    stale.addAll(old.getDependents(key));
+                }
+                for (Map.Entry<String, Expansion> e : old.expanded.entrySet())
+                {
+                    if (!stale.contains(e.getKey()))
+                    {
+                        next.keep(e.getKey(), e.getValue());
+                    }
+                }
+            }
+            else
+            {
+                stale = new HashSet<>(old.expanded.keySet());
+            }
+            for (String key : stale)
+            {
+                final String before = old.getProperty(key);
+                final String value = next.getProperty(key);
+                if (before == null && value != null)
+                {
+                    added.add(key);
+                }
+                else if (before != null && value == null)
+                {
+                    removed.add(key);
+                }
+                else if (!Objects.equals(before, value))
+                {
+                    changed.add(key);
+                }
+            }
+            state = next;
+        }
+        if (added.isEmpty() && removed.isEmpty() && changed.isEmpty())
+        {
+            return;
+        }
+        final PropertyChangeSet changes = new PropertyChangeSet(added, removed, changed);
+        final Set<String> collecting = scanned.get();
+        if (collecting != null)
+        {
+            collecting.addAll(changes.getKeys());
+        }
+        for (PropertyChangeListener listener : listeners)
+        {
+            try
+            {
+                listener.propertiesChanged(changes);
+            }
+            catch (RuntimeException e)
+            {
+                log.error("Property change listener failed", e);
+            }
+        }
+    }
+
+    private static final class Expansion
+    {
+        private final String value;
+        private final Set<String> dependencies;
+        private final boolean cyclic;
+
+        Expansion(String value, Set<String> dependencies, boolean cyclic)
+        {
+            this.value = value;
+            this.dependencies = dependencies;
+            this.cyclic = cyclic;
+        }
+    }
+
+    /**
+     * Thrown when the expansion of a key runs into one of the keys being expanded, to start
+     * over once the keys of the cycle are known.
+     */
+    private static final class CircularReference extends RuntimeException
+    {
+        private static final long serialVersionUID = 1L;
+        private final List<String> keys;
+
+        CircularReference(List<String> keys)
+        {
+            super(Joiner.on(" -> ").join(keys), null, false, false);
+            this.keys = keys;
+        }
+    }
+
+    /**
+     * The delegate's properties at one point, and the values expanded from them so far.
+     */
+    private static final class Expansions implements PropertySnapshot
+    {
+        private final long version;
+        private final PropertySnapshot raw;
+        private final ConcurrentMap<String, Expansion> expanded = new ConcurrentHashMap<>();
+        private final ConcurrentMap<String, Set<String>> dependents = new ConcurrentHashMap<>();
+        // Replaced as a whole, so that a thread sees either none or all the keys of a cycle
+        private final AtomicReference<Map<String, Set<String>>> cycles =
+            new AtomicReference<>(Collections.<String, Set<String>>emptyMap());
+
+        Expansions(long version, PropertySnapshot raw)
+        {
+            this.version = version;
+            this.raw = raw;
+        }
+
+        Expansion expand(String key)
+        {
+            final Expansion e = expanded.get(key);
+            if (e != null)
+            {
+                return e;
+            }
+            while (true)
+            {
+                try
+                {
+                    return expand(key, new LinkedHashSet<>());
+                }
+                catch (CircularReference c)
+                {
+                    // Every pass marks at least one more key, unless another thread marked
+                    // them meanwhile; marked keys are not followed again, so this ends
+                    if (markCycle(c.keys.subList(0, c.keys.size() - 1)))
+                    {
+                        log.warn("Circular property reference: " + c.getMessage() + ", left unexpanded");
+                    }
+                }
+            }
+        }
+
+        /**
+         * Has every key of a cycle depend on all the others, so that changing any of them
+         * expands them all again.
+         *
+         * @return whether some key was not known to be part of a cycle yet
+         */
+        private boolean markCycle(List<String> keys)
+        {
+            while (true)
+            {
+                final Map<String, Set<String>> known = cycles.get();
+                final Set<String> members = new HashSet<>(keys);
+                for (String key : keys)
+                {
+                    final Set<String> cycle = known.get(key);
+                    if (cycle != null)
+                    {
+                        members.addAll(cycle);
+                    }
+                }
+                final Map<String, Set<String>> next = new HashMap<>(known);
+                boolean marked = false;
+                for (String key : members)
+                {
+                    marked |= next.put(key, Collections.unmodifiableSet(members)) == null;
+                }
+                if (cycles.compareAndSet(known, next))
+                {
+                    return marked;
+                }
+            }
+        }
+
+        Set<String> getDependents(String key)
+        {
+            final Set<String> keys = dependents.get(key);
+            return keys != null ? keys : Collections.<String>emptySet();
+        }
+
+        void keep(String key, Expansion e)
+        {
+            expanded.put(key, e);
+            for (String dependency : e.dependencies)
+            {
+                dependents.computeIfAbsent(dependency, k -> ConcurrentHashMap.newKeySet()).add(key);
+            }
+        }
+
+        private Expansion expand(String key, LinkedHashSet<String> path)
+        {
+            final Expansion known = expanded.get(key);
+            if (known != null)
+            {
+                return known;
+            }
+            if (!path.add(key))
+            {
+                final List<String> cycle = new ArrayList<>(path);
+                cycle.subList(0, cycle.indexOf(key)).clear();
+                cycle.add(key);
+                throw new CircularReference(cycle);
+            }
+            try
+            {
+                final String value = raw.getProperty(key);
+                final Set<String> dependencies = new HashSet<>();
+                final String expansion = value != null ? interpolate(value, dependencies, path) : null;
+                final Expansion e = new Expansion(expansion, Collections.unmodifiableSet(dependencies),
+                                                  cycles.get().containsKey(key));
+                final Expansion previous = expanded.putIfAbsent(key, e);
+                if (previous != null)
+                {
+                    return previous;
+                }
+                for (String dependency : dependencies)
+                {
+                    dependents.computeIfAbsent(dependency, k -> ConcurrentHashMap.newKeySet()).add(key);
+                }
+                return e;
+            }
+            finally
+            {
+                path.remove(key);
+            }
+        }
+
+        private String interpolate(String text, Set<String> dependencies, LinkedHashSet<String> path)
+        {
+            int start = text.indexOf("${");
+            if (start < 0)
+            {
+                return text;
+            }
+            final StringBuilder sb = new StringBuilder(text.length());
+            int from = 0;
+            while (start >= 0)
+            {
+                final int end = closingBrace(text, start + 2);
+                if (end < 0)
+                {
+                    break;
+                }
+                sb.append(text, from, start);
+                final String reference = text.substring(start + 2, end);
+                final int colon = reference.indexOf(':', reference.startsWith("env:") ? 4 : 0);
+                final String key = colon < 0 ? reference : reference.substring(0, colon);
+                dependencies.add(key);
+                final Set<String> cycle = cycles.get().get(key);
+                final Expansion e = cycle == null ? expand(key, path) : null;
+                if (e == null || e.cyclic)
+                {
+                    // Part of a cycle: kept as written
+                    dependencies.addAll(cycle != null ? cycle : e.dependencies);
+                    sb.append(text, start, end + 1);
+                    from = end + 1;
+                    start = text.indexOf("${", from);
+                    continue;
+                }
+                dependencies.addAll(e.dependencies);
+                if (e.value != null)
+                {
+                    sb.append(e.value);
+                }
+                else if (colon >= 0)
+                {
+                    sb.append(interpolate(reference.substring(colon + 1), dependencies, path));
+                }
+                else
+                {
+                    sb.append(text, start, end + 1);
+                }
+                from = end + 1;
+                start = text.indexOf("${", from);
+            }
+            return sb.append(text, from, text.length()).toString();
+        }
+
+        /**
+         * @return the index of the brace closing a reference whose name starts at {@code from},
+         * skipping nested references, or -1 if there is none
+         */
+        private static int closingBrace(String text, int from)
+        {
+            int depth = 1;
+            for (int i = from; i < text.length(); i++)
+            {
+                final char c = text.charAt(i);
+                if (c == '$' && i + 1 < text.length() && text.charAt(i + 1) == '{')
+                {
+                    depth++;
+                    i++;
+                }
+                else if (c == '}' && --depth == 0)
+                {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        public long getVersion()
+        {
+            return version;
+        }
+
+        @Override
+        public String getProperty(String key)
+        {
+            return expand(key).value;
+        }
+
+        @Override
+        public boolean isMutable(String key)
+        {
+            if (raw.isMutable(key))
+            {
+                return true;
+            }
+            for (String dependency : expand(key).dependencies)
+            {
+                if (raw.isMutable(dependency))
+                {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public Set<String> getDependencies(String key)
+        {
+            return expand(key).dependencies;
+        }
+    }
+}
@@ -1,27 +1,38 @@
 package com.vmantek.jpos.deployer.simple;
 
-import com.google.common.collect.Lists;
 import com.google.common.collect.Multimap;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.vmantek.jpos.deployer.spi.PropertyChangeListener;
+import com.vmantek.jpos.deployer.spi.PropertyChangeSet;
+import com.vmantek.jpos.deployer.spi.PropertyChangeSource;
 import com.vmantek.jpos.deployer.spi.PropertyResolver;
+import com.vmantek.jpos.deployer.spi.PropertySnapshot;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
 
-public class SimplePropertyResolver implements PropertyResolver
+public class SimplePropertyResolver implements PropertyResolver, PropertyChangeSource
 {
     private static final Logger log = LoggerFactory.getLogger(SimplePropertyResolver.class);
     protected File outputBase;
-    private Map<String, String> config = new HashMap<>();
+    private volatile SimplePropertySnapshot snapshot;
     private List<String> configFiles = new LinkedList<>();
+    private final Map<String, ConfigLayer> layers = new HashMap<>();
+    private List<String> layerOrder = Collections.emptyList();
+    private final List<PropertyChangeListener> listeners = new CopyOnWriteArrayList<>();
 
     public SimplePropertyResolver(File outputBase)
     {
         this.outputBase = outputBase;
         setupDefaults();
+        snapshot = new SimplePropertySnapshot(0, Collections.<String, String>emptyMap(), this::getBuiltin);
     }
 
     protected void setupDefaults()
@@ -53,24 +64,30 @@ public class SimplePropertyResolver implements PropertyResolver
     }
 
     @Override
-    public void initialize() throws IOException
+    public synchronized void initialize() throws IOException
     {
-        config = readConfigFiles();
+        snapshot = newSnapshot(readConfigFiles(new HashSet<>()));
     }
 
     public String getProperty(String key)
     {
-        String v = getBuiltin(key);
-        if (v != null)
-        {
-            return v;
-        }
-        return config.get(key);
+        return snapshot.getProperty(key);
     }
 
     public boolean isMutable(String key)
     {
-        return getBuiltin(key) == null;
+        return snapshot.isMutable(key);
+    }
+
+    @Override
+    public PropertySnapshot snapshot()
+    {
+        return snapshot;
+    }
+
+    private SimplePropertySnapshot newSnapshot(Map<String, String> config)
+    {
+        return new SimplePropertySnapshot(snapshot.getVersion() + 1, config, this::getBuiltin);
     }
 
     @Override
@@ -82,33 +99,233 @@ public class SimplePropertyResolver implements PropertyResolver
     }
 
     @Override
-    public Set<String> scanPropertyChanges(Multimap<String, String> resourceProps) throws IOException
+    public synchronized Set<String> scanPropertyChanges(Multimap<String, String> resourceProps) throws IOException
+    {
+        return calculateAffectedResources(reload().getKeys(), resourceProps);
+    }
+
+    /**
+     * Reads the config files again and tells the listeners what changed, if anything.
+     */
+    public synchronized PropertyChangeSet reload() throws IOException
+    {
+        Set<String> changedProperties = new HashSet<>();
+        Map<String, String> oldConfig = snapshot.getConfig();
+        Map<String, String> newConfig = readConfigFiles(changedProperties);
+        if (newConfig == oldConfig)
+        {
+            return new PropertyChangeSet(Collections.<String>emptySet(), Collections.<String>emptySet(),
+                                         Collections.<String>emptySet());
+        }
+        snapshot = newSnapshot(newConfig);
+
+        List<String> added = new ArrayList<>();
+        List<String> removed = new ArrayList<>();
+        List<String> changed = new ArrayList<>();
+        for (String key : changedProperties)
+        {
+            (!oldConfig.containsKey(key) ? added : !newConfig.containsKey(key) ? removed : changed).add(key);
+        }
+        PropertyChangeSet changes = new PropertyChangeSet(added, removed, changed);
+        for (PropertyChangeListener listener : listeners)
+        {
+            try
+            {
+                listener.propertiesChanged(changes);
+            }
+            catch (RuntimeException e)
+            {
+                log.error("Property change listener failed", e);
+            }
+        }
+        return changes;
+    }
+
+    @Override
+    public void addPropertyChangeListener(PropertyChangeListener listener)
     {
-        Set<String> affectedResources=Collections.EMPTY_SET;
-        Map<String,String> newConfig = readConfigFiles();
-        affectedResources=calculateAffectedResources(config, newConfig, resourceProps);
-        config = newConfig;
-        return affectedResources;
+        listeners.add(listener);
     }
 
-    private Map<String, String> readConfigFiles() throws IOException
+    @Override
+    public void removePropertyChangeListener(PropertyChangeListener listener)
     {
-        Map<String, String> c = new HashMap<>();
-        for (String s : Lists.reverse(configFiles))
+        listeners.remove(listener);
+    }
+
+    /**
+     * Re-reads the config files that changed since they were last read, and merges what
+     * changed in them into the current configuration. Files are compared by size and
+     * modification time first, then by content hash, and only those whose content changed
+     * are parsed again. Later files override earlier ones.
+     * <p>
+     * Size and modification time only prove a file unchanged when it was modified well
+     * before it was last read: a same size edit within the same modification time tick
+     * would go unnoticed otherwise. Files modified shortly before they were read are
+     * hashed again on every scan until that is no longer the case.
+     *
+     * @param changed receives the keys whose merged value changed
+     * @return the new configuration, or the current one if nothing changed
+     */
+    private Map<String, String> readConfigFiles(Set<String> changed) throws IOException
+    {
+        final List<String> order = new ArrayList<>(configFiles);
+        final Set<String> touched = new HashSet<>();
+        final Map<String, ConfigLayer> read = new HashMap<>();
+        for (String name : order)
+        {
+            final ConfigLayer previous = layers.get(name);
+            final ConfigLayer layer = ConfigLayer.read(new File(name), previous);
+            if (previous == null || layer.properties != previous.properties)
+            {
+                ConfigLayer.diff(previous != null ? previous.properties : Collections.emptyMap(),
+                                 layer.properties, touched);
+            }
+            read.put(name, layer);
+        }
+        final boolean reordered = !order.equals(layerOrder);
+        layers.clear();
+        layers.putAll(read);
+        layerOrder = order;
+
+        final Map<String, String> current = snapshot.getConfig();
+        if (reordered)
+        {
+            // The files themselves were added, removed or moved, so merge them all again
+            final Map<String, String> merged = new HashMap<>();
+            for (int i = order.size() - 1; i >= 0; i--)
+            {
+                for (Map.Entry<String, String> e : layers.get(order.get(i)).properties.entrySet())
+                {
+                    merged.putIfAbsent(e.getKey(), e.getValue());
+                }
+            }
+            ConfigLayer.diff(current, merged, changed);
+            return changed.isEmpty() ? current : merged;
+        }
+        if (touched.isEmpty())
+        {
+            return current;
+        }
+        final Map<String, String> merged = new HashMap<>(current);
+        for (String key : touched)
         {
-            File f = new File(s);
-            if (f.exists())
+            final String value = resolve(key, order);
+            if (!Objects.equals(value, current.get(key)))
+            {
+                changed.add(key);
+                if (value != null)
+                {
+                    merged.put(key, value);
+                }
+                else
+                {
+                    merged.remove(key);
+                }
+            }
+        }
+        return changed.isEmpty() ? current : merged;
+    }
+
+    private String resolve(String key, List<String> order)
+    {
+        for (int i = order.size() - 1; i >= 0; i--)
+        {
+            final String value = layers.get(order.get(i)).properties.get(key);
+            if (value != null)
+            {
+                return value;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * One config file as last read.
+     */
+    private static class ConfigLayer
+    {
+        private static final ConfigLayer MISSING = new ConfigLayer(-1, -1, -1, null, Collections.<String, String>emptyMap());
+
+        /**
+         * Coarsest modification time resolution expected from a file system, in milliseconds.
+         */
+        private static final long MTIME_GRANULARITY = 2000;
+
+        private final long size;
+        private final long lastModified;
+        private final long readAt;
+        private final HashCode hash;
+        private final Map<String, String> properties;
+
+        ConfigLayer(long size, long lastModified, long readAt, HashCode hash, Map<String, String> properties)
+        {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.readAt = readAt;
+            this.hash = hash;
+            this.properties = properties;
+        }
+
+        /**
+         * True when this file could not have been modified again without changing its
+         * modification time: the time it was read lies past the tick it was modified in.
+         */
+        private boolean isSettled()
+        {
+            return lastModified + MTIME_GRANULARITY < readAt;
+        }
+
+        static ConfigLayer read(File file, ConfigLayer previous) throws IOException
+        {
+            if (!file.exists())
+            {
+                return MISSING;
+            }
+            final long size = file.length();
+            final long lastModified = file.lastModified();
+            if (previous != null && previous.size == size && previous.lastModified == lastModified
+                && previous.isSettled())
+            {
+                return previous;
+            }
+            final long readAt = System.currentTimeMillis();
+            final byte[] bytes = Files.readAllBytes(file.toPath());
+            final HashCode hash = Hashing.sha256().hashBytes(bytes);
+            if (previous != null && hash.equals(previous.hash))
+            {
+                return new ConfigLayer(size, lastModified, readAt, hash, previous.properties);
+            }
+            log.debug("Reading config file " + file);
+            Properties p = new Properties();
+            p.load(new ByteArrayInputStream(bytes));
+            Map<String, String> properties = new HashMap<>();
+            for (String name : p.stringPropertyNames())
+            {
+                properties.put(name, p.getProperty(name));
+            }
+            return new ConfigLayer(size, lastModified, readAt, hash, properties);
+        }
+
+        /**
+         * Adds to {@code keys} those added, removed or changed from {@code before} to {@code after}.
+         */
+        static void diff(Map<String, String> before, Map<String, String> after, Set<String> keys)
+        {
+            for (Map.Entry<String, String> e : after.entrySet())
+            {
+                if (!e.getValue().equals(before.get(e.getKey())))
+                {
+                    keys.add(e.getKey());
+                }
+            }
+            for (String key : before.keySet())
             {
-                Properties properties = new Properties();
-                properties.load(new FileInputStream(f));
-                //noinspection Convert2streamapi
-                for (String name : properties.stringPropertyNames())
+                if (!after.containsKey(key))
                 {
-                    if(!c.containsKey(name))
-                        c.put(name, properties.getProperty(name));
+                    keys.add(key);
                 }
             }
         }
-        return c;
     }
 }
@@ -0,0 +1,64 @@
+package com.vmantek.jpos.deployer.simple;
+
+import com.vmantek.jpos.deployer.spi.PropertySnapshot;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Immutable properties of a {@link SimplePropertyResolver}: the configuration files as
+ * read by one reload. Builtins are looked up first, on every read, so that they cost
+ * nothing to take a snapshot and always reflect the current system properties.
+ */
+public final class SimplePropertySnapshot implements PropertySnapshot
+{
+    private static final Function<String, String> NO_BUILTINS = key -> null;
+
+    private final long version;
+    private final Map<String, String> config;
+    private final Function<String, String> builtins;
+
+    public SimplePropertySnapshot(long version, Map<String, String> config)
+    {
+        this(version, config, NO_BUILTINS);
+    }
+
+    /**
+     * @param builtins looked up before {@code config}; the values it returns are not mutable
+     */
+    public SimplePropertySnapshot(long version, Map<String, String> config, Function<String, String> builtins)
+    {
+        this.version = version;
+        this.config = Collections.unmodifiableMap(new HashMap<>(config));
+        this.builtins = builtins;
+    }
+
+    @Override
+    public long getVersion()
+    {
+        return version;
+    }
+
+    @Override
+    public String getProperty(String key)
+    {
+        final String value = builtins.apply(key);
+        return value != null ? value : config.get(key);
+    }
+
+    @Override
+    public boolean isMutable(String key)
+    {
+        return builtins.apply(key) == null;
+    }
+
+    /**
+     * @return the properties read from the configuration files, without the builtins
+     */
+    public Map<String, String> getConfig()
+    {
+        return config;
+    }
+}
@@ -0,0 +1,29 @@
+package com.vmantek.jpos.deployer.spi;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collection;
+
+/**
+ * Notices changes to the sources a {@link PropertyResolver} reads its properties from.
+ */
+public interface ChangeDetector
+{
+    /**
+     * Starts watching {@code sources}; sources that do not exist yet are reported once created.
+     */
+    void start(Collection<Path> sources, Listener listener) throws IOException;
+
+    void stop();
+
+    interface Listener
+    {
+        /**
+         * @param source    the tracked source that changed
+         * @param changedAt when the change happened as far as the detector can tell (the
+         *                  modification time of the source, in epoch milliseconds), so that
+         *                  detection latency can be measured
+         */
+        void onChange(Path source, long changedAt);
+    }
+}
@@ -0,0 +1,17 @@
+package com.vmantek.jpos.deployer.spi;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * Told about the files a deployer has just written, for instance to have the container
+ * pick them up sooner than its own scan would.
+ */
+public interface DeployListener
+{
+    /**
+     * Called once per install tier and once per redeploy or redeploy wave, after the files
+     * are in place; only files whose content changed are listed.
+     */
+    void deployed(List<File> files);
+}
@@ -0,0 +1,10 @@
+package com.vmantek.jpos.deployer.spi;
+
+public interface PropertyChangeListener
+{
+    /**
+     * Called by a {@link PropertyChangeSource} once its new properties are visible through
+     * {@link PropertyResolver#getProperty}; expected to return quickly.
+     */
+    void propertiesChanged(PropertyChangeSet changes);
+}
@@ -0,0 +1,60 @@
+package com.vmantek.jpos.deployer.spi;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * The keys added, removed and changed by one update of a resolver's properties.
+ */
+public final class PropertyChangeSet
+{
+    private final Set<String> added;
+    private final Set<String> removed;
+    private final Set<String> changed;
+
+    public PropertyChangeSet(Collection<String> added, Collection<String> removed, Collection<String> changed)
+    {
+        this.added = Collections.unmodifiableSet(new HashSet<>(added));
+        this.removed = Collections.unmodifiableSet(new HashSet<>(removed));
+        this.changed = Collections.unmodifiableSet(new HashSet<>(changed));
+    }
+
+    public Set<String> getAdded()
+    {
+        return added;
+    }
+
+    public Set<String> getRemoved()
+    {
+        return removed;
+    }
+
+    public Set<String> getChanged()
+    {
+        return changed;
+    }
+
+    /**
+     * @return every key added, removed or changed
+     */
+    public Set<String> getKeys()
+    {
+        final Set<String> keys = new HashSet<>(added);
+        keys.addAll(removed);
+        keys.addAll(changed);
+        return keys;
+    }
+
+    public boolean isEmpty()
+    {
+        return added.isEmpty() && removed.isEmpty() && changed.isEmpty();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "added=" + added + " removed=" + removed + " changed=" + changed;
+    }
+}
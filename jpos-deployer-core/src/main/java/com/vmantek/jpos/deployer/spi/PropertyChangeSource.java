@@ -0,0 +1,17 @@
+package com.vmantek.jpos.deployer.spi;
+
+/**
+ * Implemented by a {@link PropertyResolver} that can tell which keys changed as its
+ * properties are updated. A monitoring deployer subscribes and redeploys the resources
+ * depending on those keys, without diffing whole configurations and whether or not any
+ * tracked source changed. Resolvers without it are scanned on file events, as before.
+ * <p>
+ * Changes found by {@link PropertyResolver#scanPropertyChanges} are pushed as well, so a
+ * subscribed deployer does not use what that method returns.
+ */
+public interface PropertyChangeSource
+{
+    void addPropertyChangeListener(PropertyChangeListener listener);
+
+    void removePropertyChangeListener(PropertyChangeListener listener);
+}
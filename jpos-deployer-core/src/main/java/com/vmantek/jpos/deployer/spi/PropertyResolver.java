@@ -1,17 +1,16 @@
 package com.vmantek.jpos.deployer.spi;
 
+import com.google.common.collect.HashMultimap;
 import com.google.common.collect.MapDifference;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Multimap;
+import com.google.common.collect.Multimaps;
 
 import java.io.IOException;
 import java.util.Collection;
 import java.util.HashSet;
-import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Set;
-import java.util.stream.Collectors;
 
 public interface PropertyResolver
 {
@@ -25,27 +24,71 @@ public interface PropertyResolver
 
     Set<String> getTrackedSources() throws IOException;
 
+    /**
+     * @return the other keys the value of {@code key} is made from, directly or not; a
+     * resource using {@code key} is redeployed when any of them changes
+     */
+    default Set<String> getDependencies(String key)
+    {
+        return snapshot().getDependencies(key);
+    }
+
+    /**
+     * @return the properties as they are now, unaffected by later reloads; resolvers that
+     * reload their properties should override this, by default the resolver is read live
+     */
+    default PropertySnapshot snapshot()
+    {
+        final PropertyResolver resolver = this;
+        return new PropertySnapshot()
+        {
+            @Override
+            public long getVersion()
+            {
+                return 0;
+            }
+
+            @Override
+            public String getProperty(String key)
+            {
+                return resolver.getProperty(key);
+            }
+
+            @Override
+            public boolean isMutable(String key)
+            {
+                return resolver.isMutable(key);
+            }
+        };
+    }
+
     default Set<String> calculateAffectedResources(Map<String, String> oldConfig,
                                                    Map<String, String> newConfig,
                                                    Multimap<String, String> resourceProps)
     {
-        Set<String> affectedResources = new HashSet<>();
         MapDifference<String, String> md = Maps.difference(oldConfig, newConfig);
-        if (!md.areEqual())
+        if (md.areEqual())
         {
-            Set<Entry<String, Collection<String>>> entries = resourceProps.asMap().entrySet();
-            Set<String> differingProperties = md.entriesDiffering().keySet();
-            if(differingProperties.size()>0)
-            {
-                for (String property : differingProperties)
-                {
-                    affectedResources.addAll(entries
-                                                 .stream()
-                                                 .filter(entry -> entry.getValue().contains(property))
-                                                 .map(Entry::getKey)
-                                                 .collect(Collectors.toList()));
-                }
-            }
+            return new HashSet<>();
+        }
+        Set<String> changedProperties = new HashSet<>(md.entriesDiffering().keySet());
+        changedProperties.addAll(md.entriesOnlyOnLeft().keySet());
+        changedProperties.addAll(md.entriesOnlyOnRight().keySet());
+        return calculateAffectedResources(changedProperties, resourceProps);
+    }
+
+    default Set<String> calculateAffectedResources(Collection<String> changedProperties,
+                                                   Multimap<String, String> resourceProps)
+    {
+        if (resourceProps instanceof ResourceKeyLookup)
+        {
+            return ((ResourceKeyLookup) resourceProps).getResources(changedProperties);
+        }
+        Multimap<String, String> propertyResources = Multimaps.invertFrom(resourceProps, HashMultimap.create());
+        Set<String> affectedResources = new HashSet<>();
+        for (String property : changedProperties)
+        {
+            affectedResources.addAll(propertyResources.get(property));
         }
         return affectedResources;
     }
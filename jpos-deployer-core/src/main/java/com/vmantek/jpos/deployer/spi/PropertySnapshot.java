@@ -0,0 +1,30 @@
+package com.vmantek.jpos.deployer.spi;
+
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * The properties of a {@link PropertyResolver} as of one moment. A resource is rendered
+ * from a single snapshot, so a reload happening meanwhile cannot hand it a mix of old and
+ * new values.
+ */
+public interface PropertySnapshot
+{
+    /**
+     * @return a number that grows with every reload of the resolver's properties
+     */
+    long getVersion();
+
+    String getProperty(String key);
+
+    boolean isMutable(String key);
+
+    /**
+     * @return the other keys the value of {@code key} is made from, directly or not, for
+     * resolvers that compose values out of other properties
+     */
+    default Set<String> getDependencies(String key)
+    {
+        return Collections.emptySet();
+    }
+}
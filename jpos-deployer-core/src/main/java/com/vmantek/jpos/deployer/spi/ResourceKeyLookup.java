@@ -0,0 +1,16 @@
+package com.vmantek.jpos.deployer.spi;
+
+import java.util.Collection;
+import java.util.Set;
+
+/**
+ * Implemented by the resource to keys multimap handed to a {@link PropertyResolver} when
+ * it also keeps the reverse mapping, so affected resources are found without inverting it.
+ */
+public interface ResourceKeyLookup
+{
+    /**
+     * @return the resources depending on any of {@code keys}
+     */
+    Set<String> getResources(Collection<String> keys);
+}
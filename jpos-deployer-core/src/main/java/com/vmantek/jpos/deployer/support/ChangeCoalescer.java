@@ -0,0 +1,136 @@
+package com.vmantek.jpos.deployer.support;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Folds bursts of change signals into a single run of an action.
+ * <p>
+ * The action runs once no signal has arrived for the quiet period, but never later than the
+ * maximum delay after the first signal of the burst. Runs never overlap; a signal arriving
+ * while the action runs starts a new burst.
+ */
+public class ChangeCoalescer
+{
+    private final ScheduledExecutorService scheduler;
+    private final LongSupplier clock;
+    private final Runnable action;
+    private final Object runLock = new Object();
+    private final LongAdder signals = new LongAdder();
+    private final LongAdder runs = new LongAdder();
+
+    private volatile long quietPeriod;
+    private volatile long maxDelay;
+
+    private ScheduledFuture<?> pending;
+    private long burstStart;
+    private long generation;
+
+    /**
+     * @param quietPeriod milliseconds without signals before the action runs
+     * @param maxDelay    maximum milliseconds between the first signal of a burst and the run
+     */
+    public ChangeCoalescer(ScheduledExecutorService scheduler, Runnable action, long quietPeriod, long maxDelay)
+    {
+        this(scheduler, action, quietPeriod, maxDelay, System::nanoTime);
+    }
+
+    /**
+     * @param clock current time in nanoseconds
+     */
+    ChangeCoalescer(ScheduledExecutorService scheduler, Runnable action, long quietPeriod, long maxDelay,
+                    LongSupplier clock)
+    {
+        this.scheduler = scheduler;
+        this.clock = clock;
+        this.action = action;
+        this.quietPeriod = quietPeriod;
+        this.maxDelay = maxDelay;
+    }
+
+    public long getQuietPeriod()
+    {
+        return quietPeriod;
+    }
+
+    public void setQuietPeriod(long quietPeriod)
+    {
+        this.quietPeriod = quietPeriod;
+    }
+
+    public long getMaxDelay()
+    {
+        return maxDelay;
+    }
+
+    public void setMaxDelay(long maxDelay)
+    {
+        this.maxDelay = maxDelay;
+    }
+
+    public synchronized void signal()
+    {
+        signals.increment();
+        final long now = clock.getAsLong();
+        if (pending == null)
+        {
+            burstStart = now;
+        }
+        else
+        {
+            pending.cancel(false);
+        }
+        final long deadline = burstStart + TimeUnit.MILLISECONDS.toNanos(maxDelay);
+        final long delay = Math.max(0, Math.min(TimeUnit.MILLISECONDS.toNanos(quietPeriod), deadline - now));
+        final long gen = ++generation;
+        pending = scheduler.schedule(() -> run(gen), delay, TimeUnit.NANOSECONDS);
+    }
+
+    public synchronized void cancel()
+    {
+        if (pending != null)
+        {
+            pending.cancel(false);
+            pending = null;
+        }
+    }
+
+    private void run(long gen)
+    {
+        synchronized (this)
+        {
+            if (gen != generation)
+            {
+                return;
+            }
+            pending = null;
+        }
+        synchronized (runLock)
+        {
+            runs.increment();
+            action.run();
+        }
+    }
+
+    public long getSignalCount()
+    {
+        return signals.sum();
+    }
+
+    public long getRunCount()
+    {
+        return runs.sum();
+    }
+
+    /**
+     * @return signals received per run of the action, 0 before the first run
+     */
+    public double getCoalescingRatio()
+    {
+        final long r = runs.sum();
+        return r == 0 ? 0 : (double) signals.sum() / r;
+    }
+}
@@ -0,0 +1,286 @@
+package com.vmantek.jpos.deployer.support;
+
+import com.vmantek.jpos.deployer.spi.ChangeDetector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadFactory;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * One {@link WatchService} and one thread watching the tracked sources of any number of
+ * subscribers, so several deployers in a JVM do not each hold their own thread and watch
+ * handles. The thread and the watch service only exist while there are subscriptions.
+ * <p>
+ * Any event in a watched directory re-checks the sources it holds, so a source replaced
+ * through a symbolic link swap is noticed even though the events name the link target's
+ * directory entries rather than the source itself. The directory a source resolves to is
+ * watched as well, so edits made through a link are seen too. The JDK specific high
+ * sensitivity hint is used when the runtime has it.
+ * <p>
+ * Listeners are called on the watch thread and are expected to hand work off quickly.
+ */
+public class ChangeMonitor implements Closeable
+{
+    private static final Logger log = LoggerFactory.getLogger(ChangeMonitor.class);
+    private static final WatchEvent.Kind<?>[] kinds = {ENTRY_MODIFY, ENTRY_DELETE, ENTRY_CREATE};
+    private static final WatchEvent.Modifier[] modifiers = sensitivityModifiers();
+
+    private final ThreadFactory threadFactory;
+    private final List<Subscription> subscriptions = new ArrayList<>();
+    private final Map<Path, WatchKey> keys = new HashMap<>();
+    private WatchService watcher;
+    private boolean closed;
+
+    public ChangeMonitor()
+    {
+        this(null);
+    }
+
+    /**
+     * @param threadFactory factory for the watch thread, or {@code null} for a daemon platform thread
+     */
+    public ChangeMonitor(ThreadFactory threadFactory)
+    {
+        this.threadFactory = threadFactory != null ? threadFactory : r -> {
+            Thread thread = new Thread(r, "q2-deployer-watch");
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    public synchronized Subscription subscribe(Collection<Path> sources, ChangeDetector.Listener listener) throws IOException
+    {
+        if (closed)
+        {
+            throw new IllegalStateException("Change monitor is closed");
+        }
+        if (watcher == null)
+        {
+            final WatchService w = FileSystems.getDefault().newWatchService();
+            watcher = w;
+            threadFactory.newThread(() -> run(w)).start();
+        }
+        final Subscription subscription = new Subscription(sources, listener);
+        subscriptions.add(subscription);
+        for (Map.Entry<Path, SourceState> e : subscription.states.entrySet())
+        {
+            register(e.getKey().getParent());
+            register(getParent(e.getValue()));
+        }
+        return subscription;
+    }
+
+    public synchronized int getSubscriptionCount()
+    {
+        return subscriptions.size();
+    }
+
+    public synchronized int getWatchedDirectoryCount()
+    {
+        return keys.size();
+    }
+
+    @Override
+    public synchronized void close()
+    {
+        closed = true;
+        subscriptions.clear();
+        release();
+    }
+
+    private synchronized void unsubscribe(Subscription subscription)
+    {
+        if (!subscriptions.remove(subscription))
+        {
+            return;
+        }
+        if (subscriptions.isEmpty())
+        {
+            release();
+            return;
+        }
+        final Set<Path> used = new HashSet<>();
+        for (Subscription s : subscriptions)
+        {
+            for (Map.Entry<Path, SourceState> e : s.states.entrySet())
+            {
+                used.add(e.getKey().getParent());
+                used.add(getParent(e.getValue()));
+            }
+        }
+        for (Iterator<Map.Entry<Path, WatchKey>> it = keys.entrySet().iterator(); it.hasNext(); )
+        {
+            final Map.Entry<Path, WatchKey> e = it.next();
+            if (!used.contains(e.getKey()))
+            {
+                e.getValue().cancel();
+                it.remove();
+            }
+        }
+    }
+
+    private void release()
+    {
+        keys.clear();
+        if (watcher != null)
+        {
+            try
+            {
+                watcher.close();
+            }
+            catch (IOException ignored)
+            {
+            }
+            watcher = null;
+        }
+    }
+
+    private void run(WatchService w)
+    {
+        while (true)
+        {
+            WatchKey key;
+            try
+            {
+                key = w.take();
+            }
+            catch (InterruptedException | ClosedWatchServiceException e)
+            {
+                return;
+            }
+            List<Runnable> notifications;
+            try
+            {
+                notifications = process(key);
+            }
+            catch (Throwable e)
+            {
+                log.error("Could not process change events", e);
+                continue;
+            }
+            for (Runnable notification : notifications)
+            {
+                notification.run();
+            }
+        }
+    }
+
+    private synchronized List<Runnable> process(WatchKey key) throws IOException
+    {
+        final Path dir = (Path) key.watchable();
+        final List<Path> named = new ArrayList<>();
+        boolean overflow = false;
+        for (WatchEvent<?> event : key.pollEvents())
+        {
+            if (event.kind() == OVERFLOW)
+            {
+                overflow = true;
+                continue;
+            }
+            named.add(dir.resolve((Path) event.context()));
+        }
+        if (!key.reset())
+        {
+            keys.remove(dir, key);
+        }
+
+        final List<Runnable> notifications = new ArrayList<>();
+        for (Subscription s : subscriptions)
+        {
+            for (Map.Entry<Path, SourceState> e : s.states.entrySet())
+            {
+                final Path source = e.getKey();
+                if (!overflow && !dir.equals(source.getParent()) && !dir.equals(getParent(e.getValue())))
+                {
+                    continue;
+                }
+                final SourceState state = SourceState.read(source);
+                if (named.contains(source) || !state.equals(e.getValue()))
+                {
+                    e.setValue(state);
+                    register(getParent(state));
+                    notifications.add(() -> s.notify(source, state.changedAt()));
+                }
+            }
+        }
+        return notifications;
+    }
+
+    private void register(Path dir) throws IOException
+    {
+        if (dir != null && watcher != null && !keys.containsKey(dir) && dir.toFile().isDirectory())
+        {
+            keys.put(dir, dir.register(watcher, kinds, modifiers));
+        }
+    }
+
+    private static Path getParent(SourceState state)
+    {
+        return state.exists() ? state.getRealPath().getParent() : null;
+    }
+
+    private static WatchEvent.Modifier[] sensitivityModifiers()
+    {
+        try
+        {
+            final Class<?> c = Class.forName("com.sun.nio.file.SensitivityWatchEventModifier");
+            return new WatchEvent.Modifier[]{(WatchEvent.Modifier) c.getField("HIGH").get(null)};
+        }
+        catch (ReflectiveOperationException | LinkageError | ClassCastException e)
+        {
+            return new WatchEvent.Modifier[0];
+        }
+    }
+
+    public class Subscription
+    {
+        private final Map<Path, SourceState> states = new LinkedHashMap<>();
+        private final ChangeDetector.Listener listener;
+
+        private Subscription(Collection<Path> sources, ChangeDetector.Listener listener)
+        {
+            for (Path source : sources)
+            {
+                final Path path = source.toAbsolutePath().normalize();
+                states.put(path, SourceState.read(path));
+            }
+            this.listener = listener;
+        }
+
+        private void notify(Path source, long changedAt)
+        {
+            try
+            {
+                listener.onChange(source, changedAt);
+            }
+            catch (Throwable t)
+            {
+                log.error("Could not handle change of " + source, t);
+            }
+        }
+
+        public void cancel()
+        {
+            unsubscribe(this);
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package com.vmantek.jpos.deployer.support;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Content hash of every file the deployer wrote, together with the size and modification
+ * time the file had right after being written. A render whose hash matches the recorded one
+ * for a file that has not been touched since can skip the write altogether.
+ */
+public class DeployIndex
+{
+    public static final String FILENAME = ".q2-deploy.idx";
+    private static final Logger log = LoggerFactory.getLogger(DeployIndex.class);
+
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final File file;
+
+    public DeployIndex()
+    {
+        this(null);
+    }
+
+    /**
+     * @param file where the index is persisted, or {@code null} to keep it in memory only
+     */
+    public DeployIndex(File file)
+    {
+        this.file = file;
+    }
+
+    public static DeployIndex load(File file) throws IOException
+    {
+        DeployIndex index = new DeployIndex(file);
+        if (file.exists())
+        {
+            Properties p = new Properties();
+            try (InputStream in = Files.newInputStream(file.toPath()))
+            {
+                p.load(in);
+            }
+            for (String name : p.stringPropertyNames())
+            {
+                Entry entry = Entry.parse(p.getProperty(name));
+                if (entry != null)
+                {
+                    index.entries.put(name, entry);
+                }
+            }
+        }
+        return index;
+    }
+
+    public boolean isPersistent()
+    {
+        return file != null;
+    }
+
+    public Entry get(String filename)
+    {
+        return entries.get(filename);
+    }
+
+    public boolean isUnchanged(String filename, File outputFile, String hash)
+    {
+        Entry entry = entries.get(filename);
+        return entry != null
+            && entry.hash.equals(hash)
+            && outputFile.length() == entry.size
+            && outputFile.lastModified() == entry.lastModified;
+    }
+
+    public void update(String filename, File outputFile, String hash)
+    {
+        entries.put(filename, new Entry(hash, outputFile.length(), outputFile.lastModified()));
+    }
+
+    public void remove(String filename)
+    {
+        entries.remove(filename);
+    }
+
+    public void clear()
+    {
+        entries.clear();
+    }
+
+    public int size()
+    {
+        return entries.size();
+    }
+
+    public synchronized void save() throws IOException
+    {
+        if (file == null)
+        {
+            return;
+        }
+        Properties p = new Properties();
+        for (Map.Entry<String, Entry> e : entries.entrySet())
+        {
+            p.setProperty(e.getKey(), e.getValue().toString());
+        }
+        final Path target = file.toPath();
+        final Path tmp = target.resolveSibling(file.getName() + ".tmp");
+        try (OutputStream out = Files.newOutputStream(tmp))
+        {
+            p.store(out, null);
+        }
+        try
+        {
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (AtomicMoveNotSupportedException e)
+        {
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    public void trySave()
+    {
+        try
+        {
+            save();
+        }
+        catch (IOException e)
+        {
+            log.warn("Could not save deploy index " + file, e);
+        }
+    }
+
+    public static class Entry
+    {
+        private final String hash;
+        private final long size;
+        private final long lastModified;
+
+        public Entry(String hash, long size, long lastModified)
+        {
+            this.hash = hash;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        public String getHash()
+        {
+            return hash;
+        }
+
+        public long getSize()
+        {
+            return size;
+        }
+
+        public long getLastModified()
+        {
+            return lastModified;
+        }
+
+        static Entry parse(String s)
+        {
+            String[] parts = s.split(" ");
+            if (parts.length != 3)
+            {
+                return null;
+            }
+            try
+            {
+                return new Entry(parts[0], Long.parseLong(parts[1]), Long.parseLong(parts[2]));
+            }
+            catch (NumberFormatException e)
+            {
+                return null;
+            }
+        }
+
+        @Override
+        public String toString()
+        {
+            return hash + " " + size + " " + lastModified;
+        }
+    }
+}
@@ -0,0 +1,273 @@
+package com.vmantek.jpos.deployer.support;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * The filter exclusions compiled into a single matcher.
+ * <p>
+ * The usual shapes are matched without tokenizing the path or running regexes:
+ * <ul>
+ * <li>{@code **}{@code /*.ext} becomes a suffix of the last path segment, looked up in a
+ * reversed-suffix trie shared by all such patterns</li>
+ * <li>{@code dir/*.ext} and {@code *.ext} become a literal directory plus a suffix</li>
+ * <li>{@code dir/**} becomes a literal prefix</li>
+ * </ul>
+ * Anything else goes through {@link AntPathMatcher}, as do paths the fast rules do not
+ * model (absolute, empty or whitespace-padded segments, line breaks).
+ */
+public class ExclusionMatcher
+{
+    private final AntPathMatcher antPathMatcher;
+    private final SuffixTrie anyDirSuffixes = new SuffixTrie();
+    private final List<String> dirPrefixes = new ArrayList<>();
+    private final List<String> dirSuffixes = new ArrayList<>();
+    private final List<String> treePrefixes = new ArrayList<>();
+    private final List<String> patterns = new ArrayList<>();
+    private final List<String> fallback = new ArrayList<>();
+
+    public ExclusionMatcher(Collection<String> patterns, AntPathMatcher antPathMatcher)
+    {
+        this.antPathMatcher = antPathMatcher;
+        this.patterns.addAll(patterns);
+        for (String pattern : patterns)
+        {
+            compile(pattern);
+        }
+    }
+
+    private void compile(String pattern)
+    {
+        if (!isPlain(pattern))
+        {
+            fallback.add(pattern);
+            return;
+        }
+        final int slash = pattern.lastIndexOf('/');
+        final String dir = slash >= 0 ? pattern.substring(0, slash) : "";
+        final String name = pattern.substring(slash + 1);
+
+        if (dir.equals("**") && isStarSuffix(name))
+        {
+            anyDirSuffixes.add(name.substring(1));
+        }
+        else if (isLiteral(dir) && isStarSuffix(name))
+        {
+            dirPrefixes.add(dir.isEmpty() ? "" : dir + "/");
+            dirSuffixes.add(name.substring(1));
+        }
+        else if (!dir.isEmpty() && isLiteral(dir) && name.equals("**"))
+        {
+            treePrefixes.add(dir);
+        }
+        else
+        {
+            fallback.add(pattern);
+        }
+    }
+
+    public List<String> getPatterns()
+    {
+        return patterns;
+    }
+
+    public boolean matches(String path)
+    {
+        return matches(path, 0);
+    }
+
+    /**
+     * Matches the part of {@code s} starting at {@code offset}, so callers holding a
+     * prefixed name do not need to cut it first.
+     */
+    public boolean matches(String s, int offset)
+    {
+        if (!fallback.isEmpty() && matchesFallback(s, offset))
+        {
+            return true;
+        }
+        if (!isModeled(s, offset))
+        {
+            return matchesFallback(s, offset, patterns);
+        }
+
+        final int end = s.length();
+        final int lastSlash = s.lastIndexOf('/');
+        final int nameStart = lastSlash >= offset ? lastSlash + 1 : offset;
+
+        if (anyDirSuffixes.matchesSuffix(s, nameStart, end))
+        {
+            return true;
+        }
+        for (int i = 0; i < dirPrefixes.size(); i++)
+        {
+            final String prefix = dirPrefixes.get(i);
+            if (nameStart - offset == prefix.length()
+                && s.startsWith(prefix, offset)
+                && endsWith(s, nameStart, end, dirSuffixes.get(i)))
+            {
+                return true;
+            }
+        }
+        for (String prefix : treePrefixes)
+        {
+            if (s.startsWith(prefix, offset)
+                && (end - offset == prefix.length() || s.charAt(offset + prefix.length()) == '/'))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean matchesFallback(String s, int offset)
+    {
+        return matchesFallback(s, offset, fallback);
+    }
+
+    private boolean matchesFallback(String s, int offset, List<String> patterns)
+    {
+        final String path = s.substring(offset);
+        for (String pattern : patterns)
+        {
+            if (antPathMatcher.match(pattern, path))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean endsWith(String s, int from, int end, String suffix)
+    {
+        final int start = end - suffix.length();
+        return start >= from && s.regionMatches(start, suffix, 0, suffix.length());
+    }
+
+    /**
+     * Whether the path has the shape the fast rules assume: relative, no empty segments
+     * and nothing {@link AntPathMatcher} would trim away.
+     */
+    private static boolean isModeled(String s, int offset)
+    {
+        final int end = s.length();
+        if (offset >= end || s.charAt(offset) == '/' || s.charAt(end - 1) == '/')
+        {
+            return false;
+        }
+        char prev = '/';
+        for (int i = offset; i < end; i++)
+        {
+            final char c = s.charAt(i);
+            if (c <= ' ' || c == '\u0085' || c == '\u2028' || c == '\u2029'
+                || (c == '/' && prev == '/'))
+            {
+                return false;
+            }
+            prev = c;
+        }
+        return true;
+    }
+
+    private static boolean isPlain(String pattern)
+    {
+        if (pattern.isEmpty() || pattern.startsWith("/") || pattern.endsWith("/") || pattern.contains("//"))
+        {
+            return false;
+        }
+        for (int i = 0; i < pattern.length(); i++)
+        {
+            final char c = pattern.charAt(i);
+            if (c == '?' || c == '{' || c == '}' || Character.isWhitespace(c))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isLiteral(String s)
+    {
+        return s.indexOf('*') == -1;
+    }
+
+    private static boolean isStarSuffix(String name)
+    {
+        return name.startsWith("*") && name.indexOf('*', 1) == -1 && !name.equals("**");
+    }
+
+    /**
+     * Suffixes stored back to front, so the end of a name is walked once whatever the
+     * number of suffixes.
+     */
+    private static class SuffixTrie
+    {
+        private final Node root = new Node();
+        private boolean empty = true;
+
+        void add(String suffix)
+        {
+            empty = false;
+            Node node = root;
+            for (int i = suffix.length() - 1; i >= 0; i--)
+            {
+                node = node.child(suffix.charAt(i), true);
+            }
+            node.terminal = true;
+        }
+
+        boolean matchesSuffix(String s, int from, int end)
+        {
+            if (empty)
+            {
+                return false;
+            }
+            Node node = root;
+            if (node.terminal)
+            {
+                return true;
+            }
+            for (int i = end - 1; i >= from; i--)
+            {
+                node = node.child(s.charAt(i), false);
+                if (node == null)
+                {
+                    return false;
+                }
+                if (node.terminal)
+                {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static class Node
+    {
+        private char[] chars = new char[0];
+        private Node[] children = new Node[0];
+        private boolean terminal;
+
+        Node child(char c, boolean create)
+        {
+            for (int i = 0; i < chars.length; i++)
+            {
+                if (chars[i] == c)
+                {
+                    return children[i];
+                }
+            }
+            if (!create)
+            {
+                return null;
+            }
+            chars = Arrays.copyOf(chars, chars.length + 1);
+            children = Arrays.copyOf(children, children.length + 1);
+            chars[chars.length - 1] = c;
+            return children[children.length - 1] = new Node();
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package com.vmantek.jpos.deployer.support;
+
+import java.beans.ConstructorProperties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histogram with power-of-two buckets. Recording is a couple of uncontended
+ * atomic increments; percentiles are only worked out when a snapshot is taken, and are
+ * accurate to within a factor of two.
+ */
+public class LatencyHistogram
+{
+    private static final int BUCKETS = 64;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final LongAdder total = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    public void record(long nanos)
+    {
+        if (nanos < 0)
+        {
+            nanos = 0;
+        }
+        buckets.incrementAndGet(BUCKETS - Long.numberOfLeadingZeros(nanos));
+        total.add(nanos);
+        max.accumulate(nanos);
+    }
+
+    /**
+     * Records the time elapsed since {@code startNanos}, as returned by {@link System#nanoTime()}.
+     *
+     * @return the elapsed nanoseconds
+     */
+    public long recordSince(long startNanos)
+    {
+        final long nanos = System.nanoTime() - startNanos;
+        record(nanos);
+        return nanos;
+    }
+
+    public void reset()
+    {
+        for (int i = 0; i < BUCKETS; i++)
+        {
+            buckets.set(i, 0);
+        }
+        total.reset();
+        max.reset();
+    }
+
+    public Snapshot snapshot()
+    {
+        final long[] counts = new long[BUCKETS];
+        long n = 0;
+        for (int i = 0; i < BUCKETS; i++)
+        {
+            counts[i] = buckets.get(i);
+            n += counts[i];
+        }
+        final long m = max.get();
+        return new Snapshot(n,
+                            toMicros(total.sum()),
+                            n == 0 ? 0 : toMicros(total.sum() / n),
+                            toMicros(m),
+                            toMicros(Math.min(m, percentile(counts, n, 0.5))),
+                            toMicros(Math.min(m, percentile(counts, n, 0.9))),
+                            toMicros(Math.min(m, percentile(counts, n, 0.99))));
+    }
+
+    private static long percentile(long[] counts, long n, double p)
+    {
+        if (n == 0)
+        {
+            return 0;
+        }
+        final long rank = (long) Math.ceil(n * p);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++)
+        {
+            seen += counts[i];
+            if (seen >= rank)
+            {
+                return i == 0 ? 0 : (1L << i) - 1;
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+    private static long toMicros(long nanos)
+    {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+
+    public static class Snapshot
+    {
+        private final long count;
+        private final long totalMicros;
+        private final long meanMicros;
+        private final long maxMicros;
+        private final long p50Micros;
+        private final long p90Micros;
+        private final long p99Micros;
+
+        @ConstructorProperties({"count", "totalMicros", "meanMicros", "maxMicros", "p50Micros", "p90Micros", "p99Micros"})
+        public Snapshot(long count, long totalMicros, long meanMicros, long maxMicros,
+                        long p50Micros, long p90Micros, long p99Micros)
+        {
+            this.count = count;
+            this.totalMicros = totalMicros;
+            this.meanMicros = meanMicros;
+            this.maxMicros = maxMicros;
+            this.p50Micros = p50Micros;
+            this.p90Micros = p90Micros;
+            this.p99Micros = p99Micros;
+        }
+
+        public long getCount()
+        {
+            return count;
+        }
+
+        public long getTotalMicros()
+        {
+            return totalMicros;
+        }
+
+        public long getMeanMicros()
+        {
+            return meanMicros;
+        }
+
+        public long getMaxMicros()
+        {
+            return maxMicros;
+        }
+
+        public long getP50Micros()
+        {
+            return p50Micros;
+        }
+
+        public long getP90Micros()
+        {
+            return p90Micros;
+        }
+
+        public long getP99Micros()
+        {
+            return p99Micros;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "count=" + count + " mean=" + meanMicros + "us p50=" + p50Micros + "us p90=" + p90Micros
+                + "us p99=" + p99Micros + "us max=" + maxMicros + "us";
+        }
+    }
+}
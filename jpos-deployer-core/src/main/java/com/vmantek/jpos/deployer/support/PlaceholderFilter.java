@@ -0,0 +1,413 @@
+package com.vmantek.jpos.deployer.support;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Single pass replacement of {@code ${prop}} and {@code @@prop@@} placeholders.
+ * <p>
+ * The output is the same as running {@code \$\{(.*?)\}} and then {@code @@(.*?)@@} through
+ * {@link java.util.regex.Matcher#appendReplacement} one after the other: the {@code ${...}}
+ * stage feeds its output straight into the {@code @@...@@} stage, placeholders never span a
+ * line terminator, and property values keep their replacement-string semantics ({@code \}
+ * escapes, {@code $0}/{@code $1} group references).
+ * <p>
+ * While filtering it also records which keys were replaced, which were looked up without
+ * being found (so adding them later can trigger a redeploy), and whether the result contains
+ * anything FreeMarker would act upon, so the template stage can be skipped otherwise.
+ * Instances are stateful and meant to filter a single document, which can be fed in chunks
+ * of any size through {@link #begin}, {@link #write} and {@link #end}; placeholders may span
+ * chunk boundaries. Keys are buffered up to {@link #MAX_KEY_LENGTH} characters, anything
+ * longer is passed through as literal text, so memory does not grow with the document.
+ */
+public class PlaceholderFilter
+{
+    public static final int MAX_KEY_LENGTH = 4096;
+
+    private final Function<String, String> lookup;
+    private final Set<String> keys = new HashSet<>();
+    private final Set<String> unresolvedKeys = new HashSet<>();
+
+    private Appendable out;
+
+    // ${...} stage
+    private boolean pendingDollar;
+    private boolean inDollar;
+    private boolean skipDollar;
+    private final StringBuilder dollarKey = new StringBuilder();
+
+    // @@...@@ stage
+    private boolean pendingAt;
+    private boolean inAt;
+    private boolean skipAt;
+    private boolean skipAtPending;
+    private final StringBuilder atKey = new StringBuilder();
+
+    // FreeMarker detection over the final output
+    private char prev1;
+    private char prev2;
+    private boolean template;
+
+    public PlaceholderFilter(Function<String, String> lookup)
+    {
+        this.lookup = lookup;
+    }
+
+    public Set<String> getKeys()
+    {
+        return keys;
+    }
+
+    public Set<String> getUnresolvedKeys()
+    {
+        return unresolvedKeys;
+    }
+
+    /**
+     * @return whether the filtered output contains FreeMarker directives or interpolations
+     */
+    public boolean needsTemplate()
+    {
+        return template;
+    }
+
+    public String filter(String doc)
+    {
+        StringBuilder sb = new StringBuilder(doc.length() + 16);
+        try
+        {
+            begin(sb);
+            write(doc, 0, doc.length());
+            end();
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+        return sb.toString();
+    }
+
+    public void begin(Appendable out)
+    {
+        this.out = out;
+    }
+
+    public void write(CharSequence cs, int off, int len) throws IOException
+    {
+        for (int i = off, n = off + len; i < n; i++)
+        {
+            dollar(cs.charAt(i));
+        }
+    }
+
+    public void write(char[] buf, int off, int len) throws IOException
+    {
+        for (int i = off, n = off + len; i < n; i++)
+        {
+            dollar(buf[i]);
+        }
+    }
+
+    public void end() throws IOException
+    {
+        if (pendingDollar)
+        {
+            pendingDollar = false;
+            at('$');
+        }
+        if (inDollar)
+        {
+            inDollar = false;
+            at('$');
+            at('{');
+            at(dollarKey);
+        }
+        if (pendingAt)
+        {
+            pendingAt = false;
+            emit('@');
+        }
+        if (inAt)
+        {
+            inAt = false;
+            emit('@');
+            emit('@');
+            emit(atKey);
+        }
+    }
+
+    private void dollar(char c) throws IOException
+    {
+        if (skipDollar)
+        {
+            skipDollar = c != '}' && !isLineTerminator(c);
+            at(c);
+        }
+        else if (inDollar)
+        {
+            if (c == '}')
+            {
+                inDollar = false;
+                final String key = dollarKey.toString();
+                final String val = lookup.apply(key);
+                if (val != null)
+                {
+                    keys.add(key);
+                    appendReplacement(val, "${" + key + "}", key, true);
+                }
+                else
+                {
+                    unresolvedKeys.add(key);
+                    at('$');
+                    at('{');
+                    at(key);
+                    at('}');
+                }
+            }
+            else if (isLineTerminator(c))
+            {
+                inDollar = false;
+                at('$');
+                at('{');
+                at(dollarKey);
+                at(c);
+            }
+            else
+            {
+                dollarKey.append(c);
+                if (dollarKey.length() > MAX_KEY_LENGTH)
+                {
+                    // too long to be a property name, pass it through up to the closing brace
+                    inDollar = false;
+                    skipDollar = true;
+                    at('$');
+                    at('{');
+                    at(dollarKey);
+                }
+            }
+        }
+        else if (c == '$')
+        {
+            if (pendingDollar)
+            {
+                at('$');
+            }
+            pendingDollar = true;
+        }
+        else if (c == '{' && pendingDollar)
+        {
+            pendingDollar = false;
+            inDollar = true;
+            dollarKey.setLength(0);
+        }
+        else
+        {
+            if (pendingDollar)
+            {
+                pendingDollar = false;
+                at('$');
+            }
+            at(c);
+        }
+    }
+
+    private void at(CharSequence cs) throws IOException
+    {
+        for (int i = 0; i < cs.length(); i++)
+        {
+            at(cs.charAt(i));
+        }
+    }
+
+    private void at(char c) throws IOException
+    {
+        if (skipAt)
+        {
+            if (isLineTerminator(c) || (c == '@' && skipAtPending))
+            {
+                skipAt = false;
+            }
+            skipAtPending = c == '@';
+            emit(c);
+        }
+        else if (inAt)
+        {
+            if (isLineTerminator(c))
+            {
+                inAt = false;
+                emit('@');
+                emit('@');
+                emit(atKey);
+                emit(c);
+                return;
+            }
+            atKey.append(c);
+            final int len = atKey.length();
+            if (len >= 2 && atKey.charAt(len - 2) == '@' && c == '@')
+            {
+                inAt = false;
+                final String key = atKey.substring(0, len - 2);
+                final String val = lookup.apply(key);
+                if (val != null)
+                {
+                    keys.add(key);
+                    appendReplacement(val, "@@" + key + "@@", key, false);
+                }
+                else
+                {
+                    unresolvedKeys.add(key);
+                    emit('@');
+                    emit('@');
+                    emit(key);
+                    emit('@');
+                    emit('@');
+                }
+            }
+            else if (len > MAX_KEY_LENGTH + 1)
+            {
+                // too long to be a property name, pass it through up to the closing @@
+                inAt = false;
+                skipAt = true;
+                skipAtPending = c == '@';
+                emit('@');
+                emit('@');
+                emit(atKey);
+            }
+        }
+        else if (c == '@')
+        {
+            if (pendingAt)
+            {
+                pendingAt = false;
+                inAt = true;
+                atKey.setLength(0);
+            }
+            else
+            {
+                pendingAt = true;
+            }
+        }
+        else
+        {
+            if (pendingAt)
+            {
+                pendingAt = false;
+                emit('@');
+            }
+            emit(c);
+        }
+    }
+
+    private void emit(CharSequence cs) throws IOException
+    {
+        for (int i = 0; i < cs.length(); i++)
+        {
+            emit(cs.charAt(i));
+        }
+    }
+
+    private void emit(char c) throws IOException
+    {
+        if (!template)
+        {
+            if (c == '{')
+            {
+                template = prev1 == '$' || prev1 == '#';
+            }
+            else if (c == '#' || c == '@')
+            {
+                template = prev1 == '[' || (prev1 == '/' && prev2 == '[');
+            }
+            prev2 = prev1;
+            prev1 = c;
+        }
+        out.append(c);
+    }
+
+    /**
+     * Mirrors {@link java.util.regex.Matcher#appendReplacement} for a pattern with a single
+     * capturing group, sending the result to the next stage.
+     */
+    private void appendReplacement(String replacement, String group0, String group1, boolean dollarStage)
+        throws IOException
+    {
+        final int groupCount = 1;
+        final StringBuilder result = new StringBuilder(replacement.length());
+        int cursor = 0;
+        while (cursor < replacement.length())
+        {
+            char nextChar = replacement.charAt(cursor);
+            if (nextChar == '\\')
+            {
+                cursor++;
+                if (cursor == replacement.length())
+                {
+                    throw new IllegalArgumentException("character to be escaped is missing");
+                }
+                result.append(replacement.charAt(cursor));
+                cursor++;
+            }
+            else if (nextChar == '$')
+            {
+                cursor++;
+                if (cursor == replacement.length())
+                {
+                    throw new IllegalArgumentException("Illegal group reference: group index is missing");
+                }
+                nextChar = replacement.charAt(cursor);
+                if (nextChar == '{')
+                {
+                    throw new IllegalArgumentException("No named capturing groups in placeholder patterns");
+                }
+                int refNum = nextChar - '0';
+                if (refNum < 0 || refNum > 9)
+                {
+                    throw new IllegalArgumentException("Illegal group reference");
+                }
+                cursor++;
+                while (cursor < replacement.length())
+                {
+                    final int nextDigit = replacement.charAt(cursor) - '0';
+                    if (nextDigit < 0 || nextDigit > 9)
+                    {
+                        break;
+                    }
+                    final int newRefNum = refNum * 10 + nextDigit;
+                    if (groupCount < newRefNum)
+                    {
+                        break;
+                    }
+                    refNum = newRefNum;
+                    cursor++;
+                }
+                if (refNum > groupCount)
+                {
+                    throw new IndexOutOfBoundsException("No group " + refNum);
+                }
+                result.append(refNum == 0 ? group0 : group1);
+            }
+            else
+            {
+                result.append(nextChar);
+                cursor++;
+            }
+        }
+
+        if (dollarStage)
+        {
+            at(result);
+        }
+        else
+        {
+            emit(result);
+        }
+    }
+
+    private static boolean isLineTerminator(char c)
+    {
+        return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+    }
+}
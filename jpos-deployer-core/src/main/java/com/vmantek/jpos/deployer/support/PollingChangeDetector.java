@@ -0,0 +1,97 @@
+package com.vmantek.jpos.deployer.support;
+
+import com.vmantek.jpos.deployer.spi.ChangeDetector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks the tracked sources at a fixed interval, for filesystems where
+ * {@link java.nio.file.WatchService} events are late or missing (network mounts, Kubernetes
+ * ConfigMaps updated through a symbolic link swap). Each check costs one attribute read
+ * and one link resolution per source.
+ */
+public class PollingChangeDetector implements ChangeDetector
+{
+    public static final long DEFAULT_INTERVAL = 1000;
+    private static final Logger log = LoggerFactory.getLogger(PollingChangeDetector.class);
+
+    private final long interval;
+    private ScheduledExecutorService scheduler;
+
+    public PollingChangeDetector()
+    {
+        this(DEFAULT_INTERVAL);
+    }
+
+    /**
+     * @param interval milliseconds between two checks
+     */
+    public PollingChangeDetector(long interval)
+    {
+        if (interval <= 0)
+        {
+            throw new IllegalArgumentException("Invalid interval: " + interval);
+        }
+        this.interval = interval;
+    }
+
+    public long getInterval()
+    {
+        return interval;
+    }
+
+    @Override
+    public synchronized void start(Collection<Path> sources, Listener listener)
+    {
+        stop();
+        final Map<Path, SourceState> states = new LinkedHashMap<>();
+        for (Path source : sources)
+        {
+            states.put(source, SourceState.read(source));
+        }
+        scheduler = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread thread = new Thread(r, "q2-deployer-poll");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> poll(states, listener), interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public synchronized void stop()
+    {
+        if (scheduler != null)
+        {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    private void poll(Map<Path, SourceState> states, Listener listener)
+    {
+        for (Map.Entry<Path, SourceState> e : states.entrySet())
+        {
+            final SourceState state = SourceState.read(e.getKey());
+            if (!state.equals(e.getValue()))
+            {
+                e.setValue(state);
+                try
+                {
+                    listener.onChange(e.getKey(), state.changedAt());
+                }
+                catch (Throwable t)
+                {
+                    log.error("Could not handle change of " + e.getKey(), t);
+                }
+            }
+        }
+    }
+}
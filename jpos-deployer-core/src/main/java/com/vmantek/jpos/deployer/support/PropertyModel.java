@@ -1,6 +1,7 @@
 package com.vmantek.jpos.deployer.support;
 
 import com.vmantek.jpos.deployer.spi.PropertyResolver;
+import com.vmantek.jpos.deployer.spi.PropertySnapshot;
 import freemarker.ext.beans.BeansWrapper;
 import freemarker.ext.beans.StringModel;
 import freemarker.template.TemplateMethodModelEx;
@@ -9,16 +10,21 @@ import freemarker.template.TemplateModelException;
 
 import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 
 public class PropertyModel extends StringModel implements TemplateMethodModelEx
 {
     private Set<String> keys = new HashSet<>();
+    private Set<String> unresolvedKeys = new HashSet<>();
 
     public PropertyModel(PropertyResolver resolver, BeansWrapper wrapper)
     {
-        super(resolver, wrapper);
+        this(resolver.snapshot(), wrapper);
+    }
+
+    public PropertyModel(PropertySnapshot snapshot, BeansWrapper wrapper)
+    {
+        super(snapshot, wrapper);
     }
 
     public Set<String> getKeys()
@@ -26,14 +32,23 @@ public class PropertyModel extends StringModel implements TemplateMethodModelEx
         return keys;
     }
 
-    protected TemplateModel invokeGenericGet(Map keyMap,
-                                             Class clazz,
-                                             String key) throws TemplateModelException
+    public Set<String> getUnresolvedKeys()
     {
-        PropertyResolver resolver = (PropertyResolver) object;
-        String val = resolver.getProperty(key);
+        return unresolvedKeys;
+    }
+
+    /**
+     * Looks keys up as properties only. The getters of the snapshot, such as
+     * {@code getVersion()}, would otherwise shadow the properties of the same name.
+     */
+    @Override
+    public TemplateModel get(String key) throws TemplateModelException
+    {
+        PropertySnapshot snapshot = (PropertySnapshot) object;
+        String val = snapshot.getProperty(key);
         if (val == null)
         {
+            unresolvedKeys.add(key);
             return null;
         }
         keys.add(key);
@@ -42,7 +57,9 @@ public class PropertyModel extends StringModel implements TemplateMethodModelEx
 
     public Object exec(List arguments) throws TemplateModelException
     {
-        Object key = unwrap((TemplateModel) arguments.get(0));
-        return wrap(((PropertyResolver) object).getProperty(key.toString()));
+        String key = unwrap((TemplateModel) arguments.get(0)).toString();
+        String val = ((PropertySnapshot) object).getProperty(key);
+        (val != null ? keys : unresolvedKeys).add(key);
+        return wrap(val);
     }
 }
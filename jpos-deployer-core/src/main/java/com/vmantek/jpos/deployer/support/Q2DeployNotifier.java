@@ -0,0 +1,74 @@
+package com.vmantek.jpos.deployer.support;
+
+import com.vmantek.jpos.deployer.spi.DeployListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reports the descriptors written to the deploy directory of a Q2, which redeploys exactly
+ * those files on its next scan.
+ * <p>
+ * Q2 redeploys a descriptor when its modification time differs from the one it last
+ * deployed, and the deployer moves that time forward on every file it replaces, even one
+ * rewritten within the same clock tick. Q2 offers no public way to scan sooner, so the
+ * descriptors are still picked up at the end of its scan interval; subclasses can override
+ * {@link #descriptorsWritten(List)} to act on them, for instance to deploy them through an
+ * API of their own.
+ */
+public class Q2DeployNotifier implements DeployListener
+{
+    private static final Logger log = LoggerFactory.getLogger(Q2DeployNotifier.class);
+
+    private final String deployDir;
+
+    /**
+     * @param deployDir the deploy directory of the Q2 to notify; files written elsewhere
+     *                  (configuration, key stores) are left out
+     */
+    public Q2DeployNotifier(File deployDir)
+    {
+        this.deployDir = canonicalPath(deployDir) + File.separator;
+    }
+
+    @Override
+    public void deployed(List<File> files)
+    {
+        final List<File> descriptors = new ArrayList<>();
+        for (File file : files)
+        {
+            if (canonicalPath(file).startsWith(deployDir))
+            {
+                descriptors.add(file);
+            }
+        }
+        if (!descriptors.isEmpty())
+        {
+            descriptorsWritten(descriptors);
+        }
+    }
+
+    /**
+     * @param descriptors the files written to the deploy directory, never empty
+     */
+    protected void descriptorsWritten(List<File> descriptors)
+    {
+        log.info("Descriptors written, redeployed on the next Q2 scan: " + descriptors);
+    }
+
+    private static String canonicalPath(File file)
+    {
+        try
+        {
+            return file.getCanonicalPath();
+        }
+        catch (IOException e)
+        {
+            return file.getAbsolutePath();
+        }
+    }
+}
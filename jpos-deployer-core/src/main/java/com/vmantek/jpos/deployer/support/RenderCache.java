@@ -0,0 +1,222 @@
+package com.vmantek.jpos.deployer.support;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Properties;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+
+/**
+ * What every filtered resource was last rendered from: the fingerprint of its source, the
+ * properties it read and the size and modification time of the file it produced. A
+ * resource whose source, properties and output are all as recorded does not need to be
+ * rendered again, not even after a restart.
+ * <p>
+ * Property values are kept as a digest only, so secrets in the configuration do not end
+ * up in the output directory.
+ */
+public class RenderCache
+{
+    public static final String FILENAME = ".q2-render.idx";
+    private static final Logger log = LoggerFactory.getLogger(RenderCache.class);
+
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final File file;
+
+    public RenderCache(File file)
+    {
+        this.file = file;
+    }
+
+    public static RenderCache load(File file) throws IOException
+    {
+        RenderCache cache = new RenderCache(file);
+        if (file.exists())
+        {
+            Properties p = new Properties();
+            try (InputStream in = Files.newInputStream(file.toPath()))
+            {
+                p.load(in);
+            }
+            for (String resource : p.stringPropertyNames())
+            {
+                Entry entry = Entry.parse(p.getProperty(resource));
+                if (entry != null)
+                {
+                    cache.entries.put(resource, entry);
+                }
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * @param fingerprint the current fingerprint of the resource source
+     * @param properties  resolves the properties the resource was rendered with
+     * @return the keys the resource was rendered with, if neither its source, those
+     * properties nor its output changed since; {@code null} otherwise
+     */
+    public SortedSet<String> verify(String resource, String fingerprint, File outputFile,
+                                    Function<String, String> properties)
+    {
+        final Entry entry = entries.get(resource);
+        if (entry == null
+            || fingerprint == null
+            || !entry.fingerprint.equals(fingerprint)
+            || outputFile.length() != entry.size
+            || outputFile.lastModified() != entry.lastModified
+            || !entry.valuesHash.equals(valuesHash(entry.keys, properties)))
+        {
+            return null;
+        }
+        return entry.keys;
+    }
+
+    public void update(String resource, String fingerprint, File outputFile,
+                       Collection<String> keys, Function<String, String> properties)
+    {
+        final SortedSet<String> sorted = new TreeSet<>(keys);
+        entries.put(resource, new Entry(fingerprint,
+                                        outputFile.length(),
+                                        outputFile.lastModified(),
+                                        valuesHash(sorted, properties),
+                                        sorted));
+    }
+
+    public void remove(String resource)
+    {
+        entries.remove(resource);
+    }
+
+    public void clear()
+    {
+        entries.clear();
+    }
+
+    public int size()
+    {
+        return entries.size();
+    }
+
+    private static String valuesHash(SortedSet<String> keys, Function<String, String> properties)
+    {
+        final Hasher hasher = Hashing.sha256().newHasher();
+        for (String key : keys)
+        {
+            final String value = properties.apply(key);
+            hasher.putString(key, Charsets.UTF_8).putByte((byte) 0);
+            if (value == null)
+            {
+                hasher.putByte((byte) 1);
+            }
+            else
+            {
+                hasher.putByte((byte) 2).putString(value, Charsets.UTF_8).putByte((byte) 0);
+            }
+        }
+        return hasher.hash().toString();
+    }
+
+    public synchronized void save() throws IOException
+    {
+        Properties p = new Properties();
+        for (Map.Entry<String, Entry> e : entries.entrySet())
+        {
+            p.setProperty(e.getKey(), e.getValue().toString());
+        }
+        final Path target = file.toPath();
+        final Path tmp = target.resolveSibling(file.getName() + ".tmp");
+        try (OutputStream out = Files.newOutputStream(tmp))
+        {
+            p.store(out, null);
+        }
+        try
+        {
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (AtomicMoveNotSupportedException e)
+        {
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    public void trySave()
+    {
+        try
+        {
+            save();
+        }
+        catch (IOException e)
+        {
+            log.warn("Could not save render cache " + file, e);
+        }
+    }
+
+    private static class Entry
+    {
+        private final String fingerprint;
+        private final long size;
+        private final long lastModified;
+        private final String valuesHash;
+        private final SortedSet<String> keys;
+
+        Entry(String fingerprint, long size, long lastModified, String valuesHash, SortedSet<String> keys)
+        {
+            this.fingerprint = fingerprint;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.valuesHash = valuesHash;
+            this.keys = keys;
+        }
+
+        static Entry parse(String s)
+        {
+            // "fingerprint size mtime hash", then the keys one per line
+            final int nl = s.indexOf('\n');
+            final String[] parts = (nl >= 0 ? s.substring(0, nl) : s).split(" ");
+            if (parts.length != 4)
+            {
+                return null;
+            }
+            final SortedSet<String> keys = new TreeSet<>();
+            if (nl >= 0)
+            {
+                keys.addAll(Splitter.on('\n').splitToList(s.substring(nl + 1)));
+            }
+            try
+            {
+                return new Entry(parts[0], Long.parseLong(parts[1]), Long.parseLong(parts[2]), parts[3], keys);
+            }
+            catch (NumberFormatException e)
+            {
+                return null;
+            }
+        }
+
+        @Override
+        public String toString()
+        {
+            final String head = fingerprint + " " + size + " " + lastModified + " " + valuesHash;
+            return keys.isEmpty() ? head : head + "\n" + Joiner.on('\n').join(keys);
+        }
+    }
+}
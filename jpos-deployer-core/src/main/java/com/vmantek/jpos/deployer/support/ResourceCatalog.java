@@ -0,0 +1,146 @@
+package com.vmantek.jpos.deployer.support;
+
+import org.jpos.q2.install.ModuleUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * The runtime resources on the classpath, and which of them go through filtering.
+ * <p>
+ * Resources are listed from the build-time {@link ResourceIndex} when the classpath has
+ * one, completed by scanning the classpath elements it does not cover, and by scanning
+ * the whole classpath otherwise. A resource is filtered unless it matches one of the
+ * filter exclusions; the flag recorded in the index is used instead while the index was
+ * built with the same exclusions.
+ */
+public class ResourceCatalog
+{
+    private static final Logger log = LoggerFactory.getLogger(ResourceCatalog.class);
+
+    private final String prefix;
+    private final AntPathMatcher antPathMatcher;
+    private final List<String> exclusions = new ArrayList<>();
+    private volatile ResourceIndex index;
+    private volatile boolean indexLoaded;
+    private volatile Boolean indexFlagsValid;
+    private volatile ExclusionMatcher exclusionMatcher;
+
+    /**
+     * @param prefix the classpath directory holding the resources
+     */
+    public ResourceCatalog(String prefix, AntPathMatcher antPathMatcher)
+    {
+        this.prefix = prefix;
+        this.antPathMatcher = antPathMatcher;
+    }
+
+    public List<String> getExclusions()
+    {
+        return exclusions;
+    }
+
+    public void setExclusions(Collection<String> patterns)
+    {
+        exclusions.clear();
+        invalidateExclusions();
+        patterns.forEach(this::addExclusion);
+    }
+
+    public void addExclusion(String pattern)
+    {
+        if (!antPathMatcher.isPattern(pattern))
+        {
+            throw new IllegalArgumentException("Invalid pattern: " + pattern);
+        }
+        exclusions.add(pattern);
+        invalidateExclusions();
+    }
+
+    public void removeExclusion(String pattern)
+    {
+        exclusions.remove(pattern);
+        invalidateExclusions();
+    }
+
+    public List<String> getResources(ClassLoader loader) throws IOException
+    {
+        final ResourceIndex index = getIndex(loader);
+        if (index != null)
+        {
+            return index.getResources();
+        }
+        return ModuleUtils.getModuleEntries(prefix);
+    }
+
+    /**
+     * @return the build-time index of the resources, completed with the resources of
+     * classpath elements that have no index, or {@code null} if the classpath has none
+     */
+    public ResourceIndex getIndex(ClassLoader loader) throws IOException
+    {
+        if (!indexLoaded)
+        {
+            synchronized (this)
+            {
+                if (!indexLoaded)
+                {
+                    final ResourceIndex loaded = ResourceIndex.load(loader);
+                    if (loaded != null && !loaded.isComplete(loader, prefix))
+                    {
+                        log.info("Some classpath elements have no " + ResourceIndex.INDEX_NAME + ", scanning them");
+                        loaded.merge(ModuleUtils.getModuleEntries(prefix), loader);
+                    }
+                    index = loaded;
+                    indexLoaded = true;
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * @return the content hash recorded at build time, if it can be trusted
+     */
+    public String getIndexedHash(String resource)
+    {
+        final ResourceIndex index = this.index;
+        final ResourceIndex.Entry entry = index != null ? index.get(resource) : null;
+        // Files of an exploded directory may have been edited since the index was built
+        return entry != null && entry.isArchived() ? entry.getHash() : null;
+    }
+
+    public boolean isFilterable(String resource)
+    {
+        final ResourceIndex index = this.index;
+        if (index != null)
+        {
+            Boolean valid = indexFlagsValid;
+            if (valid == null)
+            {
+                indexFlagsValid = valid = index.isFilterableFlagValid(exclusions);
+            }
+            final ResourceIndex.Entry entry = index.get(resource);
+            if (valid && entry != null)
+            {
+                return entry.isFilterable();
+            }
+        }
+        ExclusionMatcher matcher = exclusionMatcher;
+        if (matcher == null)
+        {
+            exclusionMatcher = matcher = new ExclusionMatcher(exclusions, antPathMatcher);
+        }
+        return !matcher.matches(resource, prefix.length() + 1);
+    }
+
+    private void invalidateExclusions()
+    {
+        indexFlagsValid = null;
+        exclusionMatcher = null;
+    }
+}
@@ -0,0 +1,142 @@
+package com.vmantek.jpos.deployer.support;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.JarURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.jar.JarEntry;
+
+import static java.nio.file.StandardOpenOption.READ;
+
+/**
+ * Copies resources that go out unfiltered without pulling them through heap buffers:
+ * plain files are transferred channel to channel, jar entries are read straight into a
+ * per-thread direct buffer and written to the (optionally preallocated) target file.
+ */
+public final class ResourceCopier
+{
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final ThreadLocal<ByteBuffer> buffers =
+        ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(BUFFER_SIZE));
+
+    private ResourceCopier()
+    {
+    }
+
+    /**
+     * Identifies the content of a resource without reading it: CRC and size for jar
+     * entries, size and modification time for plain files.
+     *
+     * @return the fingerprint, or {@code null} if the resource cannot be identified cheaply
+     */
+    public static String fingerprint(URL source) throws IOException
+    {
+        if ("jar".equals(source.getProtocol()))
+        {
+            final JarEntry entry = ((JarURLConnection) source.openConnection()).getJarEntry();
+            if (entry == null || entry.getCrc() == -1 || entry.getSize() == -1)
+            {
+                return null;
+            }
+            return "crc32:" + Long.toHexString(entry.getCrc()) + ":" + entry.getSize();
+        }
+        final Path path = toPath(source);
+        if (path != null)
+        {
+            return "file:" + Files.size(path) + ":" + Files.getLastModifiedTime(path).toMillis();
+        }
+        return null;
+    }
+
+    /**
+     * Copies {@code source} over {@code target}.
+     *
+     * @param preallocate whether to size the target to the known source size before writing
+     * @return the number of bytes written
+     */
+    public static long copy(URL source, Path target, boolean preallocate) throws IOException
+    {
+        try (RandomAccessFile raf = new RandomAccessFile(target.toFile(), "rw");
+             FileChannel out = raf.getChannel())
+        {
+            final Path path = toPath(source);
+            if (path != null)
+            {
+                try (FileChannel in = FileChannel.open(path, READ))
+                {
+                    final long size = in.size();
+                    if (preallocate)
+                    {
+                        raf.setLength(size);
+                    }
+                    long position = 0;
+                    while (position < size)
+                    {
+                        final long n = out.transferFrom(in, position, size - position);
+                        if (n <= 0)
+                        {
+                            break;
+                        }
+                        position += n;
+                    }
+                    out.truncate(position);
+                    return position;
+                }
+            }
+
+            final URLConnection conn = source.openConnection();
+            if (preallocate && conn instanceof JarURLConnection)
+            {
+                final JarEntry entry = ((JarURLConnection) conn).getJarEntry();
+                if (entry != null && entry.getSize() > 0)
+                {
+                    raf.setLength(entry.getSize());
+                }
+            }
+            try (InputStream is = conn.getInputStream();
+                 ReadableByteChannel in = Channels.newChannel(is))
+            {
+                final ByteBuffer buf = buffers.get();
+                long position = 0;
+                buf.clear();
+                while (in.read(buf) != -1)
+                {
+                    buf.flip();
+                    while (buf.hasRemaining())
+                    {
+                        position += out.write(buf, position);
+                    }
+                    buf.clear();
+                }
+                out.truncate(position);
+                return position;
+            }
+        }
+    }
+
+    private static Path toPath(URL source)
+    {
+        if (!"file".equals(source.getProtocol()))
+        {
+            return null;
+        }
+        try
+        {
+            return Paths.get(source.toURI());
+        }
+        catch (URISyntaxException | IllegalArgumentException e)
+        {
+            return null;
+        }
+    }
+}
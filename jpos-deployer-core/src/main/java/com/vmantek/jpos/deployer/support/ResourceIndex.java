@@ -0,0 +1,217 @@
+package com.vmantek.jpos.deployer.support;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Splitter;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Build-time listing of the runtime resources, as written by the {@code q2RuntimeIndex}
+ * Gradle task into {@code META-INF/q2-runtime.idx}. Every classpath element may carry its
+ * own index; they are merged in classpath order. An index only speaks for the element it
+ * was found in: elements without one still have to be scanned, see {@link #isComplete}
+ * and {@link #merge}.
+ * <p>
+ * Each line holds the resource name, its size, the SHA-256 of its content and whether it
+ * is filterable under the exclusions listed in the {@code # exclusions=} header.
+ */
+public class ResourceIndex
+{
+    public static final String INDEX_NAME = "META-INF/q2-runtime.idx";
+    private static final String EXCLUSIONS_HEADER = "# exclusions=";
+
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+    private final Set<String> exclusions = new LinkedHashSet<>();
+    private final Set<String> roots = new LinkedHashSet<>();
+    private boolean consistentExclusions = true;
+
+    /**
+     * @return the merged index, or {@code null} if no classpath element has one
+     */
+    public static ResourceIndex load(ClassLoader cl) throws IOException
+    {
+        Enumeration<URL> urls = cl.getResources(INDEX_NAME);
+        if (!urls.hasMoreElements())
+        {
+            return null;
+        }
+        ResourceIndex index = new ResourceIndex();
+        boolean first = true;
+        while (urls.hasMoreElements())
+        {
+            index.read(urls.nextElement(), first);
+            first = false;
+        }
+        return index;
+    }
+
+    private void read(URL url, boolean first) throws IOException
+    {
+        final String root = rootOf(url, INDEX_NAME);
+        roots.add(root);
+        try (BufferedReader r = new BufferedReader(new InputStreamReader(url.openStream(), Charsets.UTF_8)))
+        {
+            Set<String> excl = Collections.emptySet();
+            String line;
+            while ((line = r.readLine()) != null)
+            {
+                if (line.startsWith(EXCLUSIONS_HEADER))
+                {
+                    excl = new LinkedHashSet<>(Splitter.on(',')
+                                                   .omitEmptyStrings()
+                                                   .splitToList(line.substring(EXCLUSIONS_HEADER.length())));
+                    continue;
+                }
+                if (line.isEmpty() || line.startsWith("#"))
+                {
+                    continue;
+                }
+                List<String> parts = Splitter.on('\t').splitToList(line);
+                if (parts.size() != 4)
+                {
+                    throw new IOException("Invalid entry in " + url + ": " + line);
+                }
+                entries.putIfAbsent(parts.get(0), new Entry(Long.parseLong(parts.get(1)),
+                                                            parts.get(2),
+                                                            Boolean.parseBoolean(parts.get(3)),
+                                                            root));
+            }
+            if (first)
+            {
+                exclusions.addAll(excl);
+            }
+            else if (!exclusions.equals(excl))
+            {
+                consistentExclusions = false;
+            }
+        }
+    }
+
+    public List<String> getResources()
+    {
+        return new ArrayList<>(entries.keySet());
+    }
+
+    /**
+     * @return whether every classpath element holding {@code dir} carries an index, so that
+     * the index lists all of its resources
+     */
+    public boolean isComplete(ClassLoader cl, String dir) throws IOException
+    {
+        Enumeration<URL> urls = cl.getResources(dir);
+        while (urls.hasMoreElements())
+        {
+            if (!roots.contains(rootOf(urls.nextElement(), dir)))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Adds the resources found by scanning the classpath that no index lists, and drops
+     * the entries of resources that an element without an index shadows.
+     */
+    public void merge(Collection<String> scanned, ClassLoader cl)
+    {
+        for (String resource : scanned)
+        {
+            final Entry entry = entries.get(resource);
+            if (entry == null)
+            {
+                entries.put(resource, null);
+            }
+            else
+            {
+                final URL url = cl.getResource(resource);
+                if (url != null && !rootOf(url, resource).equals(entry.root))
+                {
+                    entries.put(resource, null);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the indexed details of {@code resource}, or {@code null} if it was found by
+     * scanning an element without an index
+     */
+    public Entry get(String resource)
+    {
+        return entries.get(resource);
+    }
+
+    /**
+     * @return whether the precomputed filterable flags apply to the given exclusions
+     */
+    public boolean isFilterableFlagValid(Collection<String> filterExclusions)
+    {
+        return consistentExclusions && exclusions.equals(new LinkedHashSet<>(filterExclusions));
+    }
+
+    /**
+     * @return the classpath element a resource or directory was found in, as a URL prefix
+     */
+    private static String rootOf(URL url, String name)
+    {
+        String s = url.toExternalForm();
+        if (s.endsWith("/") && !name.endsWith("/"))
+        {
+            s = s.substring(0, s.length() - 1);
+        }
+        return s.endsWith(name) ? s.substring(0, s.length() - name.length()) : s;
+    }
+
+    public static class Entry
+    {
+        private final long size;
+        private final String hash;
+        private final boolean filterable;
+        private final String root;
+
+        Entry(long size, String hash, boolean filterable, String root)
+        {
+            this.size = size;
+            this.hash = hash;
+            this.filterable = filterable;
+            this.root = root;
+        }
+
+        public long getSize()
+        {
+            return size;
+        }
+
+        public String getHash()
+        {
+            return hash;
+        }
+
+        public boolean isFilterable()
+        {
+            return filterable;
+        }
+
+        /**
+         * @return whether the resource comes from a jar, whose content cannot change after
+         * the index was built; files of an exploded directory may have been edited since
+         */
+        public boolean isArchived()
+        {
+            return root.startsWith("jar:");
+        }
+    }
+}
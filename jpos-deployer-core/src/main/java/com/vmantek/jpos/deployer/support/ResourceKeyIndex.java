@@ -0,0 +1,117 @@
+package com.vmantek.jpos.deployer.support;
+
+import com.google.common.collect.ForwardingSortedSetMultimap;
+import com.google.common.collect.Multimap;
+import com.google.common.collect.Multimaps;
+import com.google.common.collect.SortedSetMultimap;
+import com.google.common.collect.TreeMultimap;
+import com.vmantek.jpos.deployer.spi.ResourceKeyLookup;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * The properties each deployed resource depends on (resource to keys), kept together with
+ * the reverse mapping (key to resources) so the resources affected by a set of changed keys
+ * are found with one lookup per key.
+ * <p>
+ * Mutations go through this class only; the multimap views are read-only. Like the
+ * {@link Multimaps#synchronizedMultimap synchronized multimaps}, callers iterating over the
+ * views must hold the lock on this index.
+ */
+public class ResourceKeyIndex extends ForwardingSortedSetMultimap<String, String> implements ResourceKeyLookup
+{
+    private final SortedSetMultimap<String, String> resourceKeys = TreeMultimap.create();
+    private final SortedSetMultimap<String, String> keyResources = TreeMultimap.create();
+    private final SortedSetMultimap<String, String> view = Multimaps.unmodifiableSortedSetMultimap(resourceKeys);
+
+    @Override
+    protected SortedSetMultimap<String, String> delegate()
+    {
+        return view;
+    }
+
+    /**
+     * @return the resources depending on {@code key}
+     */
+    public synchronized Set<String> getResources(String key)
+    {
+        return new TreeSet<>(keyResources.get(key));
+    }
+
+    @Override
+    public synchronized Set<String> getResources(Collection<String> keys)
+    {
+        Set<String> resources = new TreeSet<>();
+        for (String key : keys)
+        {
+            resources.addAll(keyResources.get(key));
+        }
+        return resources;
+    }
+
+    @Override
+    public synchronized boolean put(String resource, String key)
+    {
+        keyResources.put(key, resource);
+        return resourceKeys.put(resource, key);
+    }
+
+    @Override
+    public synchronized boolean putAll(String resource, Iterable<? extends String> keys)
+    {
+        boolean changed = false;
+        for (String key : keys)
+        {
+            changed |= put(resource, key);
+        }
+        return changed;
+    }
+
+    @Override
+    public synchronized boolean putAll(Multimap<? extends String, ? extends String> multimap)
+    {
+        boolean changed = false;
+        for (Map.Entry<? extends String, ? extends String> e : multimap.entries())
+        {
+            changed |= put(e.getKey(), e.getValue());
+        }
+        return changed;
+    }
+
+    @Override
+    public synchronized boolean remove(Object resource, Object key)
+    {
+        keyResources.remove(key, resource);
+        return resourceKeys.remove(resource, key);
+    }
+
+    @Override
+    public synchronized SortedSet<String> removeAll(Object resource)
+    {
+        SortedSet<String> keys = resourceKeys.removeAll(resource);
+        for (String key : keys)
+        {
+            keyResources.remove(key, resource);
+        }
+        return keys;
+    }
+
+    @Override
+    public synchronized SortedSet<String> replaceValues(String resource, Iterable<? extends String> keys)
+    {
+        SortedSet<String> previous = removeAll(resource);
+        putAll(resource, keys);
+        return previous;
+    }
+
+    @Override
+    public synchronized void clear()
+    {
+        resourceKeys.clear();
+        keyResources.clear();
+    }
+}
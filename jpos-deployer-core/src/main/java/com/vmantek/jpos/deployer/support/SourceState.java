@@ -0,0 +1,89 @@
+package com.vmantek.jpos.deployer.support;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Objects;
+
+/**
+ * What a change detector knows about a tracked source: where it resolves to, its size,
+ * modification time and file key (the inode on most platforms). Symbolic links are
+ * followed, so swapping a link to a new target shows up as a change even when the new
+ * file has the same size and time.
+ */
+final class SourceState
+{
+    static final SourceState MISSING = new SourceState(null, -1, -1, null);
+
+    private final Path realPath;
+    private final long size;
+    private final long lastModified;
+    private final Object fileKey;
+
+    private SourceState(Path realPath, long size, long lastModified, Object fileKey)
+    {
+        this.realPath = realPath;
+        this.size = size;
+        this.lastModified = lastModified;
+        this.fileKey = fileKey;
+    }
+
+    static SourceState read(Path source)
+    {
+        try
+        {
+            final BasicFileAttributes attrs = Files.readAttributes(source, BasicFileAttributes.class);
+            return new SourceState(source.toRealPath(),
+                                   attrs.size(),
+                                   attrs.lastModifiedTime().toMillis(),
+                                   attrs.fileKey());
+        }
+        catch (IOException e)
+        {
+            return MISSING;
+        }
+    }
+
+    Path getRealPath()
+    {
+        return realPath;
+    }
+
+    boolean exists()
+    {
+        return realPath != null;
+    }
+
+    /**
+     * @return the modification time of the source, or the current time if it is gone
+     */
+    long changedAt()
+    {
+        return exists() ? lastModified : System.currentTimeMillis();
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (this == o)
+        {
+            return true;
+        }
+        if (!(o instanceof SourceState))
+        {
+            return false;
+        }
+        final SourceState that = (SourceState) o;
+        return size == that.size
+            && lastModified == that.lastModified
+            && Objects.equals(realPath, that.realPath)
+            && Objects.equals(fileKey, that.fileKey);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return Objects.hash(realPath, size, lastModified, fileKey);
+    }
+}
@@ -0,0 +1,144 @@
+package com.vmantek.jpos.deployer.support;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.ToIntFunction;
+
+/**
+ * Rendered files waiting in the {@link StagingArea} to be moved into place together, so
+ * that Q2 does not see a mix of old and new descriptors while the rendering goes on.
+ * Files can be added from several threads.
+ *
+ * @param <T> what the caller needs to finish the bookkeeping of a file once committed
+ */
+public class StagedBatch<T>
+{
+    private static final Logger log = LoggerFactory.getLogger(StagedBatch.class);
+
+    private final Map<String, StagedFile<T>> files = new ConcurrentHashMap<>();
+
+    /**
+     * Told about every file of a batch as it is committed.
+     */
+    public interface Listener<T>
+    {
+        /**
+         * @param nanos time taken to move the file into place
+         */
+        void committed(StagedFile<T> file, long nanos);
+
+        void failed(StagedFile<T> file, IOException error);
+    }
+
+    public void add(String resource, StagedFile<T> file)
+    {
+        files.put(resource, file);
+    }
+
+    public StagedFile<T> get(String resource)
+    {
+        return files.get(resource);
+    }
+
+    public boolean isEmpty()
+    {
+        return files.isEmpty();
+    }
+
+    /**
+     * Moves the files into place, lowest tier first and by file name within a tier. A file
+     * that cannot be moved is dropped from the staging area; the others are still committed.
+     *
+     * @param tierOf the tier of a file name
+     */
+    public void commit(ToIntFunction<String> tierOf, Listener<T> listener)
+    {
+        final List<StagedFile<T>> ordered = new ArrayList<>(files.values());
+        ordered.sort(Comparator.comparingInt((StagedFile<T> f) -> tierOf.applyAsInt(f.getFilename()))
+                         .thenComparing(StagedFile::getFilename));
+        for (StagedFile<T> f : ordered)
+        {
+            try
+            {
+                final long start = System.nanoTime();
+                StagingArea.commit(f.getStaged(), f.getOutputFile());
+                listener.committed(f, System.nanoTime() - start);
+            }
+            catch (IOException e)
+            {
+                log.error("Could not write file: " + f.getOutputFile().getAbsolutePath(), e);
+                listener.failed(f, e);
+                try
+                {
+                    Files.deleteIfExists(f.getStaged());
+                }
+                catch (IOException ignored)
+                {
+                }
+            }
+        }
+    }
+
+    /**
+     * A rendered file waiting in the staging area.
+     */
+    public static class StagedFile<T>
+    {
+        private final Path staged;
+        private final File outputFile;
+        private final String filename;
+        private final String hash;
+        private final long size;
+        private final T state;
+
+        public StagedFile(Path staged, File outputFile, String filename, String hash, T state) throws IOException
+        {
+            this.staged = staged;
+            this.outputFile = outputFile;
+            this.filename = filename;
+            this.hash = hash;
+            this.state = state;
+            this.size = Files.size(staged);
+        }
+
+        public Path getStaged()
+        {
+            return staged;
+        }
+
+        public File getOutputFile()
+        {
+            return outputFile;
+        }
+
+        public String getFilename()
+        {
+            return filename;
+        }
+
+        public String getHash()
+        {
+            return hash;
+        }
+
+        public long getSize()
+        {
+            return size;
+        }
+
+        public T getState()
+        {
+            return state;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.vmantek.jpos.deployer.support;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.google.common.hash.HashingOutputStream;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.security.SecureRandom;
+
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * The directory under the output base where files are rendered before being moved into
+ * place, so that Q2 never sees a file half written. Staged files live on the same file
+ * system as their destination, which keeps the move atomic where the platform allows it.
+ */
+public class StagingArea
+{
+    private static final HashFunction hashFunction = Hashing.sha256();
+    private static final SecureRandom random = new SecureRandom();
+    /**
+     * Coarsest modification time resolution expected from a file system, in milliseconds.
+     */
+    private static final long MTIME_GRANULARITY = 2000;
+
+    private final File dir;
+    private final int bufferSize;
+
+    /**
+     * @param bufferSize size of the buffer of writers returned by {@link #newWriter}
+     */
+    public StagingArea(File dir, int bufferSize)
+    {
+        this.dir = dir;
+        this.bufferSize = bufferSize;
+    }
+
+    public File getDir()
+    {
+        return dir;
+    }
+
+    /**
+     * Creates an empty staged file. Unlike a temporary file, it gets the permissions of
+     * any other file created by the process, as rendered files did before staging.
+     */
+    public Path create() throws IOException
+    {
+        final Path stagingDir = dir.toPath();
+        Files.createDirectories(stagingDir);
+        while (true)
+        {
+            final Path staged = stagingDir.resolve("q2r" + Long.toHexString(random.nextLong()) + ".tmp");
+            try
+            {
+                return Files.createFile(staged);
+            }
+            catch (FileAlreadyExistsException ignored)
+            {
+            }
+        }
+    }
+
+    /**
+     * Opens a staged file for writing from scratch, hashing what is written.
+     */
+    public HashingOutputStream open(Path staged) throws IOException
+    {
+        final FileChannel channel = FileChannel.open(staged, WRITE, TRUNCATE_EXISTING);
+        return new HashingOutputStream(hashFunction, Channels.newOutputStream(channel));
+    }
+
+    public Writer newWriter(OutputStream out)
+    {
+        return new BufferedWriter(new OutputStreamWriter(out, Charset.defaultCharset()), bufferSize);
+    }
+
+    /**
+     * Moves a staged file into place, replacing what was there. A replaced file keeps its
+     * permissions, and its modification time always moves forward: Q2 redeploys a
+     * descriptor when that time differs from the one it deployed, which a rewrite within
+     * the same clock tick would not change.
+     */
+    public static void commit(Path staged, File outputFile) throws IOException
+    {
+        inheritFrom(outputFile.toPath(), staged);
+        try
+        {
+            Files.move(staged, outputFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (AtomicMoveNotSupportedException e)
+        {
+            Files.move(staged, outputFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static void inheritFrom(Path target, Path staged) throws IOException
+    {
+        final BasicFileAttributes attrs;
+        try
+        {
+            attrs = Files.readAttributes(target, BasicFileAttributes.class);
+        }
+        catch (NoSuchFileException e)
+        {
+            return;
+        }
+        final PosixFileAttributeView view = Files.getFileAttributeView(target, PosixFileAttributeView.class);
+        if (view != null)
+        {
+            try
+            {
+                Files.setPosixFilePermissions(staged, view.readAttributes().permissions());
+            }
+            catch (NoSuchFileException ignored)
+            {
+                // Removed meanwhile, nothing to keep
+            }
+        }
+        final long previous = attrs.lastModifiedTime().toMillis();
+        if (Files.getLastModifiedTime(staged).toMillis() <= previous)
+        {
+            Files.setLastModifiedTime(staged, FileTime.fromMillis(previous + MTIME_GRANULARITY));
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.vmantek.jpos.deployer.support;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import freemarker.ext.beans.BeansWrapper;
+import freemarker.template.Configuration;
+import freemarker.template.DefaultObjectWrapper;
+import freemarker.template.Template;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Long-lived FreeMarker configuration plus the compiled templates of every filtered
+ * resource. A template is only reparsed when the text it was compiled from changes.
+ * <p>
+ * Templates are compiled from the text left by the placeholder pass, so a redeploy reuses
+ * the template unless one of its {@code ${key}} placeholders changed value; properties read
+ * by the template itself, in directives, do not matter. Deployers sharing a cache may render
+ * the same resource from different text (their placeholders resolve differently), so a few
+ * variants are kept per resource.
+ */
+public class TemplateCache
+{
+    private static final HashFunction hashFunction = Hashing.sha256();
+    private static final int MAX_VARIANTS = 8;
+
+    private final Configuration configuration;
+    private final BeansWrapper objectWrapper;
+    private final ConcurrentMap<String, ConcurrentMap<HashCode, Template>> templates = new ConcurrentHashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public TemplateCache()
+    {
+        objectWrapper = new DefaultObjectWrapper();
+        configuration = new Configuration(Configuration.VERSION_2_3_23);
+        configuration.setTagSyntax(Configuration.SQUARE_BRACKET_TAG_SYNTAX);
+    }
+
+    public Configuration getConfiguration()
+    {
+        return configuration;
+    }
+
+    public BeansWrapper getObjectWrapper()
+    {
+        return objectWrapper;
+    }
+
+    public Template getTemplate(String resource, String doc) throws IOException
+    {
+        final HashCode hash = hashFunction.hashString(doc, Charsets.UTF_8);
+        final ConcurrentMap<HashCode, Template> variants =
+            templates.computeIfAbsent(resource, r -> new ConcurrentHashMap<>());
+        final Template cached = variants.get(hash);
+        if (cached != null)
+        {
+            hits.incrementAndGet();
+            return cached;
+        }
+        misses.incrementAndGet();
+        final Template template = new Template(resource, new StringReader(doc), configuration);
+        if (variants.size() >= MAX_VARIANTS)
+        {
+            variants.clear();
+        }
+        variants.put(hash, template);
+        return template;
+    }
+
+    /**
+     * @return how many templates were served without compiling them
+     */
+    public long getHitCount()
+    {
+        return hits.get();
+    }
+
+    public long getMissCount()
+    {
+        return misses.get();
+    }
+
+    public boolean contains(String resource)
+    {
+        return templates.containsKey(resource);
+    }
+
+    public void evict(String resource)
+    {
+        templates.remove(resource);
+    }
+
+    public void clear()
+    {
+        templates.clear();
+    }
+
+    public int size()
+    {
+        return templates.size();
+    }
+}
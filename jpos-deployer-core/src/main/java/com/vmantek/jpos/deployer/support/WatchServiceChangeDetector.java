@@ -0,0 +1,49 @@
+package com.vmantek.jpos.deployer.support;
+
+import com.vmantek.jpos.deployer.spi.ChangeDetector;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collection;
+
+/**
+ * Detects changes through a {@link ChangeMonitor}: a private one by default, or one shared
+ * with other deployers so they all use a single watch thread.
+ */
+public class WatchServiceChangeDetector implements ChangeDetector
+{
+    private final ChangeMonitor monitor;
+    private ChangeMonitor.Subscription subscription;
+
+    public WatchServiceChangeDetector()
+    {
+        this(new ChangeMonitor());
+    }
+
+    public WatchServiceChangeDetector(ChangeMonitor monitor)
+    {
+        this.monitor = monitor;
+    }
+
+    public ChangeMonitor getMonitor()
+    {
+        return monitor;
+    }
+
+    @Override
+    public synchronized void start(Collection<Path> sources, Listener listener) throws IOException
+    {
+        stop();
+        subscription = monitor.subscribe(sources, listener);
+    }
+
+    @Override
+    public synchronized void stop()
+    {
+        if (subscription != null)
+        {
+            subscription.cancel();
+            subscription = null;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package com.vmantek.jpos.deployer.support;
+
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+
+/**
+ * Runs one {@link WaveSequence} at a time. Work asking to start while waves are in flight
+ * is deferred, and the deferred action runs once, after the last wave.
+ */
+public class WaveRunner
+{
+    private final Runnable deferred;
+    private final Object lock = new Object();
+    private WaveSequence current;
+    private boolean deferredPending;
+    private ScheduledExecutorService ownScheduler;
+
+    /**
+     * @param deferred run after the waves when something was deferred meanwhile
+     */
+    public WaveRunner(Runnable deferred)
+    {
+        this.deferred = deferred;
+    }
+
+    /**
+     * @return true if waves are in flight, in which case the deferred action runs after them
+     */
+    public boolean deferIfBusy()
+    {
+        synchronized (lock)
+        {
+            if (current != null)
+            {
+                deferredPending = true;
+                return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Runs the first wave on the calling thread and schedules the others.
+     *
+     * @param scheduler where the waves after the first one run, or {@code null} for a
+     *                  scheduler of this runner
+     * @param done      run after the last wave, before any deferred action
+     */
+    public void start(ScheduledExecutorService scheduler, List<? extends Runnable> waves, long delay, Runnable done)
+    {
+        final WaveSequence sequence = new WaveSequence(scheduler != null ? scheduler : getOwnScheduler(), waves,
+                                                       delay, () -> finish(done));
+        synchronized (lock)
+        {
+            current = sequence;
+        }
+        sequence.start();
+    }
+
+    /**
+     * Drops the waves not started yet and shuts down the scheduler of this runner, if any.
+     */
+    public void stop()
+    {
+        final WaveSequence sequence;
+        synchronized (lock)
+        {
+            sequence = current;
+        }
+        if (sequence != null)
+        {
+            sequence.cancel();
+        }
+        synchronized (lock)
+        {
+            if (ownScheduler != null)
+            {
+                ownScheduler.shutdown();
+                ownScheduler = null;
+            }
+        }
+    }
+
+    private void finish(Runnable done)
+    {
+        final boolean again;
+        try
+        {
+            done.run();
+        }
+        finally
+        {
+            synchronized (lock)
+            {
+                current = null;
+                again = deferredPending;
+                deferredPending = false;
+            }
+        }
+        if (again)
+        {
+            deferred.run();
+        }
+    }
+
+    private ScheduledExecutorService getOwnScheduler()
+    {
+        synchronized (lock)
+        {
+            if (ownScheduler == null)
+            {
+                ownScheduler = new ScheduledThreadPoolExecutor(1, r -> {
+                    Thread thread = new Thread(r, "q2-deployer-waves");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            }
+            return ownScheduler;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.vmantek.jpos.deployer.support;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs waves one after the other with a pause in between. The pause is a delay on the
+ * scheduler rather than a sleeping thread, so a scheduler shared with other work keeps
+ * running it meanwhile, and there is no sleep to interrupt.
+ * <p>
+ * The first wave runs on the thread calling {@link #start}, the others on the scheduler.
+ * Once the last wave ran, or the sequence was cancelled, the completion action runs once.
+ */
+public class WaveSequence
+{
+    private static final Logger log = LoggerFactory.getLogger(WaveSequence.class);
+
+    private final ScheduledExecutorService scheduler;
+    private final List<Runnable> waves;
+    private final long delay;
+    private final Runnable done;
+    private final AtomicBoolean finished = new AtomicBoolean();
+    private volatile boolean cancelled;
+    private volatile ScheduledFuture<?> pending;
+    private int next;
+
+    /**
+     * @param delay milliseconds between the end of a wave and the start of the next
+     * @param done  run once the sequence is over, on the thread that ran the last wave
+     */
+    public WaveSequence(ScheduledExecutorService scheduler, List<? extends Runnable> waves, long delay, Runnable done)
+    {
+        this.scheduler = scheduler;
+        this.waves = new ArrayList<>(waves);
+        this.delay = delay;
+        this.done = done;
+    }
+
+    public void start()
+    {
+        runNext();
+    }
+
+    /**
+     * Drops the waves that have not started yet; a wave already running is finished.
+     */
+    public void cancel()
+    {
+        cancelled = true;
+        final ScheduledFuture<?> f = pending;
+        if (f != null && f.cancel(false))
+        {
+            finish();
+        }
+    }
+
+    public boolean isFinished()
+    {
+        return finished.get();
+    }
+
+    private void runNext()
+    {
+        pending = null;
+        if (cancelled)
+        {
+            finish();
+            return;
+        }
+        try
+        {
+            waves.get(next++).run();
+        }
+        catch (RuntimeException e)
+        {
+            log.error("Wave " + next + " failed", e);
+        }
+        if (next >= waves.size() || cancelled)
+        {
+            finish();
+            return;
+        }
+        try
+        {
+            pending = scheduler.schedule(this::runNext, delay, TimeUnit.MILLISECONDS);
+        }
+        catch (RejectedExecutionException e)
+        {
+            log.warn("Scheduler stopped, " + (waves.size() - next) + " waves not run");
+            finish();
+        }
+    }
+
+    private void finish()
+    {
+        if (finished.compareAndSet(false, true))
+        {
+            done.run();
+        }
+    }
+}
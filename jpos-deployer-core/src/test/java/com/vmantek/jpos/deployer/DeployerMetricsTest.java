@@ -0,0 +1,74 @@
+package com.vmantek.jpos.deployer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DeployerMetricsTest
+{
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    private final MapPropertyResolver resolver = new MapPropertyResolver();
+    private ResourceDeployer deployer;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        deployer = new ResourceDeployer(resolver, tmp.newFolder("out"));
+        resolver.properties.put("name", "channel");
+        resolver.properties.put("mode", "ok");
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        deployer.unregisterMBean();
+    }
+
+    @Test
+    public void publishesMetricsOverJmx() throws Exception
+    {
+        final ObjectName name = deployer.registerMBean("test \"one\"");
+        assertEquals("com.vmantek.jpos.deployer", name.getDomain());
+        assertEquals("ResourceDeployer", name.getKeyProperty("type"));
+        assertEquals("test \"one\"", ObjectName.unquote(name.getKeyProperty("name")));
+
+        deployer.installRuntimeResources();
+        assertEquals(3L, server.getAttribute(name, "InstalledCount"));
+        assertEquals(0L, server.getAttribute(name, "FailedCount"));
+        final CompositeData install = (CompositeData) server.getAttribute(name, "InstallLatency");
+        assertEquals(3L, install.get("count"));
+        final TabularData resources = (TabularData) server.getAttribute(name, "ResourceStats");
+        assertEquals(3, resources.size());
+    }
+
+    @Test
+    public void unregistersOnce() throws Exception
+    {
+        final ObjectName name = deployer.registerMBean("test");
+        assertTrue(server.isRegistered(name));
+
+        deployer.unregisterMBean();
+        assertFalse(server.isRegistered(name));
+        deployer.unregisterMBean();
+
+        // The name is free again
+        assertEquals(name, deployer.registerMBean("test"));
+        assertTrue(server.isRegistered(name));
+    }
+}
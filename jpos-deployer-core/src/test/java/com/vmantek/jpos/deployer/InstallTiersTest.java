@@ -0,0 +1,137 @@
+package com.vmantek.jpos.deployer;
+
+import com.google.common.base.Charsets;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class InstallTiersTest
+{
+    private static final String TEMPLATE = "META-INF/q2-runtime/deploy/10_template.xml";
+    private static final String WAVE_A = "META-INF/q2-runtime/deploy/20_wave_a.xml";
+    private static final String WAVE_B = "META-INF/q2-runtime/deploy/20_wave_b.xml";
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private final MapPropertyResolver resolver = new MapPropertyResolver();
+    private final InstallTiers tiers = new InstallTiers();
+    private final List<Integer> installed = Collections.synchronizedList(new ArrayList<>());
+    private File outputBase;
+    private ResourceDeployer deployer;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        outputBase = tmp.newFolder("out");
+        deployer = new ResourceDeployer(resolver, outputBase);
+        resolver.properties.put("name", "channel");
+        resolver.properties.put("mode", "ok");
+        tiers.setNamePrefixes(true);
+        tiers.setListener(this::tierInstalled);
+        deployer.setInstallTiers(tiers);
+    }
+
+    @Test
+    public void patternsWinOverNamePrefixes()
+    {
+        tiers.addPattern(5, "deploy/*_wave_b.xml");
+        tiers.setDefaultTier(50);
+
+        assertEquals(5, tiers.getTier("deploy/20_wave_b.xml"));
+        assertEquals(20, tiers.getTier("deploy/20_wave_a.xml"));
+        assertEquals(50, tiers.getTier("deploy/wave.xml"));
+        assertEquals(50, tiers.getTier("deploy/20wave.xml"));
+    }
+
+    @Test
+    public void splitsLowestTierFirst()
+    {
+        tiers.addPattern(5, "deploy/*_wave_b.xml");
+
+        final SortedMap<Integer, List<String>> split = tiers.split(Arrays.asList(WAVE_A, WAVE_B, TEMPLATE));
+
+        assertEquals(Arrays.asList(5, 10, 20), new ArrayList<>(split.keySet()));
+        assertEquals(Collections.singletonList(WAVE_B), split.get(5));
+        assertEquals(Collections.singletonList(TEMPLATE), split.get(10));
+        assertEquals(Collections.singletonList(WAVE_A), split.get(20));
+    }
+
+    @Test
+    public void reportsEveryTierOnceItIsOnDisk() throws IOException
+    {
+        deployer.installRuntimeResources();
+
+        assertEquals(Arrays.asList(10, 20), installed);
+    }
+
+    @Test
+    public void reportsEveryTierOnceItIsOnDiskFromTheExecutor() throws Exception
+    {
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try
+        {
+            deployer.setInstallExecutor(executor);
+            deployer.installRuntimeResourcesAsync().get(5, TimeUnit.SECONDS);
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+
+        assertEquals(Arrays.asList(10, 20), installed);
+    }
+
+    private void tierInstalled(int tier, List<InstallResult> results)
+    {
+        try
+        {
+            if (tier == 10)
+            {
+                assertEquals(1, results.size());
+                assertTrue(read("deploy/10_template.xml").contains("value=\"ok\""));
+                // The next tier is only written once this one is done
+                assertFalse(new File(outputBase, "deploy/20_wave_a.xml").exists());
+            }
+            else
+            {
+                assertEquals(2, results.size());
+                assertTrue(read("deploy/20_wave_a.xml").contains("channel-a"));
+                assertTrue(read("deploy/20_wave_b.xml").contains("channel-b"));
+            }
+            for (InstallResult result : results)
+            {
+                assertEquals(result.toString(), InstallResult.Status.INSTALLED, result.getStatus());
+            }
+            final String[] staged = new File(outputBase, ResourceDeployer.STAGING_DIR).list();
+            assertEquals(0, staged != null ? staged.length : 0);
+        }
+        catch (IOException e)
+        {
+            throw new AssertionError(e);
+        }
+        installed.add(tier);
+    }
+
+    private String read(String filename) throws IOException
+    {
+        return new String(Files.readAllBytes(new File(outputBase, filename).toPath()), Charsets.UTF_8);
+    }
+}
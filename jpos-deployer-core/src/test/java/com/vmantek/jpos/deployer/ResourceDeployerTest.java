@@ -0,0 +1,238 @@
+package com.vmantek.jpos.deployer;
+
+import com.google.common.base.Charsets;
+import com.vmantek.jpos.deployer.support.TemplateCache;
+import freemarker.template.TemplateException;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ResourceDeployerTest
+{
+    private static final String TEMPLATE = "META-INF/q2-runtime/deploy/10_template.xml";
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private final MapPropertyResolver resolver = new MapPropertyResolver();
+    private File outputBase;
+    private ResourceDeployer deployer;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        outputBase = tmp.newFolder("out");
+        deployer = new ResourceDeployer(resolver, outputBase);
+        resolver.properties.put("name", "channel");
+        resolver.properties.put("mode", "ok");
+    }
+
+    @Test
+    public void brokenTemplateKeepsPreviousOutput() throws IOException
+    {
+        assertKeepsPreviousOutput();
+    }
+
+    @Test
+    public void brokenTemplateKeepsPreviousOutputInBatch() throws IOException
+    {
+        deployer.setBatchCommit(true);
+        assertKeepsPreviousOutput();
+    }
+
+    @Test
+    public void brokenTemplateInstalledFirstWritesFilteredOutput() throws IOException
+    {
+        resolver.properties.put("mode", "broken");
+        deployer.installResource(TEMPLATE);
+        assertEquals(1, deployer.getMetrics().getFailedCount());
+        final String deployed = read("deploy/10_template.xml");
+        assertTrue(deployed, deployed.contains("name=\"channel\"") && deployed.contains("[#if"));
+        assertStagingEmpty();
+    }
+
+    @Test
+    public void redeployReusesTheCompiledTemplate() throws IOException
+    {
+        try (DeployerContext context = new DeployerContext())
+        {
+            final TemplateCache templateCache = context.getTemplateCache();
+            deployer = new ResourceDeployer(resolver, outputBase, context);
+            deployer.installResource(TEMPLATE);
+            assertEquals(1, templateCache.getMissCount());
+
+            // Only read by a directive, so the text compiled is the same
+            resolver.properties.put("mode", "alt");
+            deployer.scanChanges();
+            assertTrue(read("deploy/10_template.xml").contains("value=\"alt\""));
+            assertEquals(1, templateCache.getHitCount());
+            assertEquals(1, templateCache.getMissCount());
+
+            // A placeholder changes the text, which is compiled again
+            resolver.properties.put("name", "renamed");
+            deployer.scanChanges();
+            assertTrue(read("deploy/10_template.xml").contains("name=\"renamed\""));
+            assertEquals(2, templateCache.getMissCount());
+        }
+    }
+
+    @Test
+    public void unchangedOutputIsNotRewrittenAcrossRestarts() throws IOException
+    {
+        deployer.setPersistentIndex(true);
+        deployer.installRuntimeResources();
+        assertEquals(3, deployer.getMetrics().getInstalledCount());
+        final File output = new File(outputBase, "deploy/10_template.xml");
+        final long lastModified = output.lastModified();
+
+        deployer = new ResourceDeployer(resolver, outputBase);
+        deployer.setPersistentIndex(true);
+        deployer.installRuntimeResources();
+        assertEquals(0, deployer.getMetrics().getInstalledCount());
+        assertEquals(3, deployer.getMetrics().getUnchangedCount());
+        assertEquals(lastModified, output.lastModified());
+
+        // An output edited by hand is written again
+        Files.write(output.toPath(), "edited".getBytes(Charsets.UTF_8));
+        deployer.installRuntimeResources();
+        assertEquals(1, deployer.getMetrics().getInstalledCount());
+        assertTrue(read("deploy/10_template.xml").contains("name=\"channel\""));
+    }
+
+    @Test
+    public void reportsInstallErrorsFromTheExecutor() throws Exception
+    {
+        resolver.properties.put("mode", "broken");
+        // A directory in the way of the output cannot be replaced
+        final File inTheWay = new File(outputBase, "deploy/20_wave_a.xml");
+        inTheWay.mkdirs();
+        new File(inTheWay, "keep").createNewFile();
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try
+        {
+            deployer.setInstallExecutor(executor);
+            final Map<String, InstallResult> results = new HashMap<>();
+            for (InstallResult result : deployer.installRuntimeResourcesAsync().get(5, TimeUnit.SECONDS))
+            {
+                results.put(result.getResource(), result);
+            }
+
+            assertEquals(3, results.size());
+            assertTrue(results.get(TEMPLATE).getError() instanceof TemplateException);
+            final InstallResult write = results.get("META-INF/q2-runtime/deploy/20_wave_a.xml");
+            assertEquals(InstallResult.Status.FAILED, write.getStatus());
+            assertTrue(String.valueOf(write.getError()), write.getError() instanceof IOException);
+            assertEquals(InstallResult.Status.INSTALLED,
+                         results.get("META-INF/q2-runtime/deploy/20_wave_b.xml").getStatus());
+
+            // The blocking call goes through the executor as well
+            deployer.installRuntimeResources();
+            assertEquals(4, deployer.getMetrics().getFailedCount());
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void runMonitorsUntilStopped() throws Exception
+    {
+        final Thread monitor = new Thread(deployer);
+        monitor.start();
+        monitor.join(300);
+        assertTrue(monitor.isAlive());
+
+        deployer.stopConfigMonitoring();
+        monitor.join(5000);
+        assertFalse(monitor.isAlive());
+    }
+
+    @Test
+    public void pausesBetweenWavesWithoutHoldingTheThread() throws Exception
+    {
+        final List<InstallResult> results = Collections.synchronizedList(new ArrayList<>());
+        final List<Integer> done = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch latch = new CountDownLatch(3);
+        final RedeployWaves waves = new RedeployWaves();
+        waves.setWaveSize(1);
+        waves.setDelay(200);
+        waves.setListener((wave, total, wavedResults, nanos) -> {
+            results.addAll(wavedResults);
+            done.add(wave);
+            latch.countDown();
+        });
+        deployer.setRedeployWaves(waves);
+        deployer.installRuntimeResources();
+
+        resolver.properties.put("name", "renamed");
+        final long start = System.nanoTime();
+        deployer.scanChanges();
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 200);
+        assertEquals(Collections.singletonList(1), done);
+
+        // A change made while waves are in flight waits for the last one
+        deployer.scanChanges();
+        if (!latch.await(5, TimeUnit.SECONDS))
+        {
+            fail("Waves done: " + done);
+        }
+        deployer.stopConfigMonitoring();
+        assertEquals(3, results.size());
+        for (InstallResult result : results)
+        {
+            assertEquals(result.toString(), InstallResult.Status.INSTALLED, result.getStatus());
+        }
+        assertTrue(read("deploy/20_wave_b.xml").contains("renamed-b"));
+    }
+
+    private void assertKeepsPreviousOutput() throws IOException
+    {
+        deployer.installResource(TEMPLATE);
+        final String deployed = read("deploy/10_template.xml");
+        assertTrue(deployed, deployed.contains("name=\"channel\"") && deployed.contains("value=\"ok\""));
+
+        resolver.properties.put("mode", "broken");
+        resolver.properties.put("name", "renamed");
+        deployer.scanChanges();
+        assertEquals(deployed, read("deploy/10_template.xml"));
+        assertEquals(1, deployer.getMetrics().getFailedCount());
+        assertStagingEmpty();
+
+        // Fixing the property deploys the resource again
+        resolver.properties.put("mode", "ok");
+        deployer.scanChanges();
+        assertTrue(read("deploy/10_template.xml").contains("name=\"renamed\""));
+        assertStagingEmpty();
+    }
+
+    private void assertStagingEmpty()
+    {
+        final String[] staged = new File(outputBase, ResourceDeployer.STAGING_DIR).list();
+        assertEquals(0, staged != null ? staged.length : 0);
+    }
+
+    private String read(String filename) throws IOException
+    {
+        return new String(Files.readAllBytes(new File(outputBase, filename).toPath()), Charsets.UTF_8);
+    }
+}
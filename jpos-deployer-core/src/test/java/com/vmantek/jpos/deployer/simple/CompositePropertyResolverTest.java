@@ -0,0 +1,177 @@
+package com.vmantek.jpos.deployer.simple;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.Multimap;
+import com.vmantek.jpos.deployer.spi.PropertyResolver;
+import com.vmantek.jpos.deployer.spi.PropertySnapshot;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+
+public class CompositePropertyResolverTest
+{
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private File topFile;
+    private File bottomFile;
+    private SimplePropertyResolver top;
+    private SimplePropertyResolver bottom;
+    private final Map<String, String> pulled = new HashMap<>();
+    private CompositePropertyResolver resolver;
+    private final Set<String> reported = new HashSet<>();
+
+    @Before
+    public void setUp() throws IOException
+    {
+        topFile = tmp.newFile("top.properties");
+        bottomFile = tmp.newFile("bottom.properties");
+        write(topFile, "a=top\n");
+        write(bottomFile, "a=bottom\nb=bottom\n");
+        pulled.put("c", "pulled");
+        top = layer(topFile);
+        bottom = layer(bottomFile);
+        resolver = new CompositePropertyResolver(top, bottom, new MapResolver(pulled));
+        resolver.initialize();
+        resolver.addPropertyChangeListener(changes -> reported.addAll(changes.getKeys()));
+    }
+
+    @Test
+    public void firstLayerHoldingAKeyWins()
+    {
+        assertEquals("top", resolver.getProperty("a"));
+        assertEquals("bottom", resolver.getProperty("b"));
+        assertEquals("pulled", resolver.getProperty("c"));
+        assertEquals(null, resolver.getProperty("d"));
+        assertEquals(0, resolver.getLayerOf("a"));
+        assertEquals(1, resolver.getLayerOf("b"));
+        assertEquals(2, resolver.getLayerOf("c"));
+        assertEquals(-1, resolver.getLayerOf("d"));
+    }
+
+    @Test
+    public void reportsOnlyKeysResolvedFromTheChangedLayer() throws IOException
+    {
+        resolver.getProperty("a");
+        resolver.getProperty("b");
+
+        // a is shadowed by the top layer
+        write(bottomFile, "a=other\nb=changed\n");
+        bottom.reload();
+        assertEquals(set("b"), reported);
+        assertEquals("top", resolver.getProperty("a"));
+        assertEquals("changed", resolver.getProperty("b"));
+
+        // Removed from the top layer, a falls back to the bottom one
+        reported.clear();
+        write(topFile, "");
+        top.reload();
+        assertEquals(set("a"), reported);
+        assertEquals("other", resolver.getProperty("a"));
+        assertEquals(1, resolver.getLayerOf("a"));
+    }
+
+    @Test
+    public void scanChecksLayersThatDoNotPush() throws IOException
+    {
+        final Multimap<String, String> resourceProps = HashMultimap.create();
+        resourceProps.put("deploy/10_c.xml", "c");
+        resolver.getProperty("c");
+
+        pulled.put("c", "changed");
+        assertEquals(set("deploy/10_c.xml"), resolver.scanPropertyChanges(resourceProps));
+        assertEquals(set("c"), reported);
+        assertEquals("changed", resolver.getProperty("c"));
+    }
+
+    @Test
+    public void reportsKeysFirstReadThroughAnOlderSnapshot() throws IOException
+    {
+        final PropertySnapshot rendering = resolver.snapshot();
+        write(topFile, "a=newer\n");
+        top.reload();
+        reported.clear();
+
+        // A render still holding the older snapshot reads c after it was replaced
+        assertEquals("pulled", rendering.getProperty("c"));
+        pulled.put("c", "changed");
+        resolver.scanPropertyChanges(HashMultimap.<String, String>create());
+        assertEquals(set("c"), reported);
+    }
+
+    private SimplePropertyResolver layer(File file)
+    {
+        final SimplePropertyResolver layer = new SimplePropertyResolver(tmp.getRoot());
+        layer.removeConfigFile("cfg/config.properties");
+        layer.addConfigFile(file.getAbsolutePath());
+        return layer;
+    }
+
+    private static void write(File file, String text) throws IOException
+    {
+        Files.write(file.toPath(), text.getBytes(Charsets.UTF_8));
+        // Past the modification time tick of the previous content
+        file.setLastModified(file.lastModified() + 5000);
+    }
+
+    private static Set<String> set(String... keys)
+    {
+        return new HashSet<>(Arrays.asList(keys));
+    }
+
+    /**
+     * A layer read live, that does not push its changes.
+     */
+    private static class MapResolver implements PropertyResolver
+    {
+        private final Map<String, String> properties;
+
+        MapResolver(Map<String, String> properties)
+        {
+            this.properties = properties;
+        }
+
+        @Override
+        public void initialize()
+        {
+        }
+
+        @Override
+        public String getProperty(String key)
+        {
+            return properties.get(key);
+        }
+
+        @Override
+        public boolean isMutable(String key)
+        {
+            return true;
+        }
+
+        @Override
+        public Set<String> scanPropertyChanges(Multimap<String, String> m)
+        {
+            return Collections.emptySet();
+        }
+
+        @Override
+        public Set<String> getTrackedSources()
+        {
+            return Collections.emptySet();
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package com.vmantek.jpos.deployer.simple;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.Multimap;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+
+public class InterpolatingPropertyResolverTest
+{
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private File config;
+    private SimplePropertyResolver delegate;
+    private InterpolatingPropertyResolver resolver;
+    private final Set<String> reported = new HashSet<>();
+
+    @Before
+    public void setUp() throws IOException
+    {
+        config = tmp.newFile("config.properties");
+        delegate = new SimplePropertyResolver(tmp.getRoot());
+        delegate.removeConfigFile("cfg/config.properties");
+        delegate.addConfigFile(config.getAbsolutePath());
+    }
+
+    @Test
+    public void expandsReferencesAndDefaults() throws IOException
+    {
+        start("host=localhost\nurl=http://${host}:${port:8000}/\nlink=${url}\nloose=${nowhere}\n");
+        assertEquals("http://localhost:8000/", resolver.getProperty("url"));
+        assertEquals("http://localhost:8000/", resolver.getProperty("link"));
+        assertEquals("${nowhere}", resolver.getProperty("loose"));
+        assertEquals(set("host", "port"), resolver.getDependencies("url"));
+        assertEquals(set("url", "host", "port"), resolver.getDependencies("link"));
+    }
+
+    @Test
+    public void expandsAgainOnlyWhatChangedKeysMadeUp() throws IOException
+    {
+        start("host=localhost\nname=channel\nurl=http://${host}:${port:8000}/\nlink=${url}\n");
+        resolver.getProperty("link");
+        resolver.getProperty("name");
+
+        update("host=remote\nname=channel\nurl=http://${host}:${port:8000}/\nlink=${url}\n");
+        assertEquals(set("host", "url", "link"), reported);
+        assertEquals("http://remote:8000/", resolver.getProperty("link"));
+
+        // A default taking over is reported as well
+        reported.clear();
+        update("host=remote\nport=9000\nname=channel\nurl=http://${host}:${port:8000}/\nlink=${url}\n");
+        assertEquals(set("port", "url", "link"), reported);
+        assertEquals("http://remote:9000/", resolver.getProperty("link"));
+    }
+
+    @Test
+    public void redeploysResourcesUsingExpandedValues() throws IOException
+    {
+        start("host=localhost\nurl=http://${host}/\n");
+        resolver.getProperty("url");
+        final Multimap<String, String> resourceProps = HashMultimap.create();
+        resourceProps.putAll("deploy/10_channel.xml", resolver.getDependencies("url"));
+        resourceProps.put("deploy/10_channel.xml", "url");
+
+        write("host=remote\nurl=http://${host}/\n");
+        assertEquals(set("deploy/10_channel.xml"), resolver.scanPropertyChanges(resourceProps));
+    }
+
+    @Test
+    public void leavesCyclesUnexpanded() throws IOException
+    {
+        start("a=${b}\nb=x${a}\nself=${self}\nuser=[${a}]\nok=fine\n");
+        assertEquals("${b}", resolver.getProperty("a"));
+        assertEquals("x${a}", resolver.getProperty("b"));
+        assertEquals("${self}", resolver.getProperty("self"));
+        assertEquals("[${a}]", resolver.getProperty("user"));
+        assertEquals("fine", resolver.getProperty("ok"));
+        assertEquals(set("a", "b"), resolver.getDependencies("user"));
+        assertEquals("${b}", resolver.getProperty("a"));
+    }
+
+    @Test
+    public void expandsAgainOnceACycleIsBroken() throws IOException
+    {
+        start("a=${b}\nb=${c}\nc=${a}\nuser=[${a}]\n");
+        assertEquals("[${a}]", resolver.getProperty("user"));
+        assertEquals("${b}", resolver.getProperty("a"));
+        assertEquals("${c}", resolver.getProperty("b"));
+
+        update("a=${b}\nb=${c}\nc=end\nuser=[${a}]\n");
+        assertEquals(set("a", "b", "c", "user"), reported);
+        assertEquals("[end]", resolver.getProperty("user"));
+        assertEquals("end", resolver.getProperty("a"));
+    }
+
+    @Test
+    public void leavesCyclesUnexpandedWhenThreadsRunIntoThemTogether() throws Exception
+    {
+        final int size = 200;
+        final StringBuilder text = new StringBuilder();
+        for (int i = 0; i < size; i++)
+        {
+            text.append("k").append(i).append("=${k").append((i + 1) % size).append("}\n");
+        }
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try
+        {
+            for (int round = 0; round < 20; round++)
+            {
+                start(text.toString());
+                final CyclicBarrier barrier = new CyclicBarrier(8);
+                final List<Future<String>> values = new ArrayList<>();
+                for (int t = 0; t < 8; t++)
+                {
+                    final String key = "k" + t * size / 8;
+                    values.add(executor.submit(() -> {
+                        barrier.await();
+                        return resolver.getProperty(key);
+                    }));
+                }
+                for (int t = 0; t < 8; t++)
+                {
+                    assertEquals("${k" + (t * size / 8 + 1) + "}", values.get(t).get());
+                }
+            }
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    private void start(String text) throws IOException
+    {
+        Files.write(config.toPath(), text.getBytes(Charsets.UTF_8));
+        resolver = new InterpolatingPropertyResolver(delegate);
+        resolver.initialize();
+        resolver.addPropertyChangeListener(changes -> reported.addAll(changes.getKeys()));
+    }
+
+    private void write(String text) throws IOException
+    {
+        Files.write(config.toPath(), text.getBytes(Charsets.UTF_8));
+        // Past the modification time tick of the previous content
+        config.setLastModified(config.lastModified() + 5000);
+    }
+
+    private void update(String text) throws IOException
+    {
+        write(text);
+        delegate.reload();
+    }
+
+    private static Set<String> set(String... keys)
+    {
+        return new HashSet<>(Arrays.asList(keys));
+    }
+}
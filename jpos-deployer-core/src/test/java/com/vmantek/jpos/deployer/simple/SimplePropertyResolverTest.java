@@ -0,0 +1,137 @@
+package com.vmantek.jpos.deployer.simple;
+
+import com.google.common.base.Charsets;
+import com.vmantek.jpos.deployer.spi.PropertyChangeListener;
+import com.vmantek.jpos.deployer.spi.PropertyChangeSet;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SimplePropertyResolverTest
+{
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void resolvesBuiltinsBeforeInitialize()
+    {
+        final File base = tmp.getRoot();
+        final SimplePropertyResolver resolver = new SimplePropertyResolver(base);
+        assertEquals(base.getAbsolutePath(), resolver.getProperty("basedir"));
+        assertEquals(System.getProperty("java.version"), resolver.getProperty("env:java.version"));
+        assertFalse(resolver.isMutable("basedir"));
+        assertFalse(resolver.isMutable("env:java.version"));
+    }
+
+    @Test
+    public void readsSystemPropertiesOnEveryLookup() throws IOException
+    {
+        final SimplePropertyResolver resolver = new SimplePropertyResolver(tmp.getRoot());
+        resolver.initialize();
+
+        System.setProperty("deployer.test.value", "late");
+        try
+        {
+            assertEquals("late", resolver.getProperty("env:deployer.test.value"));
+        }
+        finally
+        {
+            System.clearProperty("deployer.test.value");
+        }
+        assertNull(resolver.getProperty("env:deployer.test.value"));
+    }
+
+    @Test
+    public void seesSameSizeEditsWithinOneModificationTick() throws IOException
+    {
+        final File config = tmp.newFile("config.properties");
+        Files.write(config.toPath(), "a=1\n".getBytes(Charsets.UTF_8));
+        final long tick = config.lastModified();
+        final SimplePropertyResolver resolver = new SimplePropertyResolver(tmp.getRoot());
+        resolver.addConfigFile(config.getAbsolutePath());
+        resolver.initialize();
+        assertEquals("1", resolver.getProperty("a"));
+
+        Files.write(config.toPath(), "a=2\n".getBytes(Charsets.UTF_8));
+        config.setLastModified(tick);
+        assertEquals(Collections.singleton("a"), resolver.reload().getKeys());
+        assertEquals("2", resolver.getProperty("a"));
+    }
+
+    @Test
+    public void builtinOverridesComeBeforeConfiguredValues() throws IOException
+    {
+        final File config = tmp.newFile("config.properties");
+        Files.write(config.toPath(), "a=1\nnode=configured\n".getBytes(Charsets.UTF_8));
+        final SimplePropertyResolver resolver = new SimplePropertyResolver(tmp.getRoot())
+        {
+            @Override
+            protected String getBuiltin(String key)
+            {
+                return key.startsWith("node") ? "legacy" : super.getBuiltin(key);
+            }
+        };
+        resolver.addConfigFile(config.getAbsolutePath());
+        resolver.initialize();
+
+        assertEquals("legacy", resolver.getProperty("node.name"));
+        assertEquals("legacy", resolver.getProperty("node"));
+        assertFalse(resolver.isMutable("node"));
+        assertEquals("1", resolver.getProperty("a"));
+        assertTrue(resolver.isMutable("a"));
+        assertNull(resolver.getProperty("missing"));
+    }
+
+    @Test
+    public void reloadPushesAddedChangedAndRemovedKeys() throws IOException
+    {
+        final File config = tmp.newFile("config.properties");
+        Files.write(config.toPath(), "a=1\nb=1\nc=1\n".getBytes(Charsets.UTF_8));
+        final SimplePropertyResolver resolver = new SimplePropertyResolver(tmp.getRoot());
+        resolver.addConfigFile(config.getAbsolutePath());
+        resolver.initialize();
+        final List<PropertyChangeSet> pushed = new ArrayList<>();
+        final List<String> seen = new ArrayList<>();
+        final PropertyChangeListener listener = changes -> {
+            pushed.add(changes);
+            seen.add(resolver.getProperty("b"));
+        };
+        resolver.addPropertyChangeListener(listener);
+
+        Files.write(config.toPath(), "b=2\nc=1\nd=1\n".getBytes(Charsets.UTF_8));
+        final PropertyChangeSet changes = resolver.reload();
+
+        assertEquals(1, pushed.size());
+        assertSame(changes, pushed.get(0));
+        assertEquals(Collections.singleton("d"), changes.getAdded());
+        assertEquals(Collections.singleton("b"), changes.getChanged());
+        assertEquals(Collections.singleton("a"), changes.getRemoved());
+        assertEquals(new HashSet<>(Arrays.asList("a", "b", "d")), changes.getKeys());
+        // The new values are visible to the listener
+        assertEquals(Collections.singletonList("2"), seen);
+
+        // Nothing changed, nothing pushed
+        assertTrue(resolver.reload().isEmpty());
+        assertEquals(1, pushed.size());
+
+        resolver.removePropertyChangeListener(listener);
+        Files.write(config.toPath(), "b=3\n".getBytes(Charsets.UTF_8));
+        assertFalse(resolver.reload().isEmpty());
+        assertEquals(1, pushed.size());
+    }
+}
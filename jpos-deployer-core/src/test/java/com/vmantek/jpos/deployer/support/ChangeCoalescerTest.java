@@ -0,0 +1,106 @@
+package com.vmantek.jpos.deployer.support;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+public class ChangeCoalescerTest
+{
+    private final ManualScheduler scheduler = new ManualScheduler();
+    private final AtomicInteger runs = new AtomicInteger();
+    private long now;
+    private final ChangeCoalescer coalescer =
+        new ChangeCoalescer(scheduler, runs::incrementAndGet, 250, 1000, () -> now);
+
+    @After
+    public void tearDown()
+    {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void runsOnceAfterTheQuietPeriod()
+    {
+        coalescer.signal();
+        now = millis(100);
+        coalescer.signal();
+        now = millis(200);
+        coalescer.signal();
+        assertEquals(Arrays.asList(250L, 250L, 250L), scheduler.delays);
+
+        // Runs scheduled by earlier signals of the burst do nothing
+        scheduler.tasks.get(0).run();
+        scheduler.tasks.get(1).run();
+        assertEquals(0, runs.get());
+        scheduler.tasks.get(2).run();
+        assertEquals(1, runs.get());
+        assertEquals(3, coalescer.getSignalCount());
+        assertEquals(3.0, coalescer.getCoalescingRatio(), 0);
+    }
+
+    @Test
+    public void runsNoLaterThanTheMaxDelay()
+    {
+        for (int t = 0; t <= 1100; t += 200)
+        {
+            now = millis(t);
+            coalescer.signal();
+        }
+        // Signals every 200 ms would postpone the run forever; the burst started at 0
+        assertEquals(Arrays.asList(250L, 250L, 250L, 250L, 200L, 0L), scheduler.delays);
+
+        scheduler.tasks.get(5).run();
+        assertEquals(1, runs.get());
+
+        // The next signal starts a new burst
+        now = millis(1200);
+        coalescer.signal();
+        assertEquals(250L, (long) scheduler.delays.get(6));
+    }
+
+    @Test
+    public void picksUpNewSettings()
+    {
+        coalescer.setQuietPeriod(50);
+        coalescer.signal();
+        coalescer.setMaxDelay(20);
+        coalescer.signal();
+        assertEquals(Arrays.asList(50L, 20L), scheduler.delays);
+    }
+
+    private static long millis(long millis)
+    {
+        return TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    /**
+     * Records what is scheduled, in milliseconds, and leaves it to the test to run it.
+     */
+    private static class ManualScheduler extends ScheduledThreadPoolExecutor
+    {
+        final List<Long> delays = new ArrayList<>();
+        final List<Runnable> tasks = new ArrayList<>();
+
+        ManualScheduler()
+        {
+            super(1);
+        }
+
+        @Override
+        public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit)
+        {
+            delays.add(unit.toMillis(delay));
+            tasks.add(command);
+            return super.schedule(command, 1, TimeUnit.DAYS);
+        }
+    }
+}
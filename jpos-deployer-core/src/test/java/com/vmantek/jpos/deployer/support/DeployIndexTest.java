@@ -0,0 +1,116 @@
+package com.vmantek.jpos.deployer.support;
+
+import com.google.common.base.Charsets;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class DeployIndexTest
+{
+    private static final String FILENAME = "deploy/10_channel.xml";
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private File output;
+    private File indexFile;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        output = tmp.newFile("10_channel.xml");
+        write("<channel host=\"localhost\" />");
+        indexFile = new File(tmp.getRoot(), DeployIndex.FILENAME);
+    }
+
+    @Test
+    public void skipsOnlyTheSameHashOverAnUntouchedFile() throws IOException
+    {
+        final DeployIndex index = new DeployIndex();
+        assertFalse(index.isUnchanged(FILENAME, output, "hash-1"));
+
+        index.update(FILENAME, output, "hash-1");
+        assertTrue(index.isUnchanged(FILENAME, output, "hash-1"));
+        assertFalse(index.isUnchanged(FILENAME, output, "hash-2"));
+        assertFalse(index.isUnchanged("deploy/20_other.xml", output, "hash-1"));
+
+        index.remove(FILENAME);
+        assertFalse(index.isUnchanged(FILENAME, output, "hash-1"));
+    }
+
+    @Test
+    public void writesOutsideTheDeployerAreNotSkipped() throws IOException
+    {
+        final DeployIndex index = new DeployIndex();
+        index.update(FILENAME, output, "hash-1");
+        final long lastModified = output.lastModified();
+
+        // Same size, later modification time
+        write("<channel host=\"edited!!!\" />");
+        output.setLastModified(lastModified + 2000);
+        assertFalse(index.isUnchanged(FILENAME, output, "hash-1"));
+
+        // Same modification time, different size
+        write("<channel />");
+        output.setLastModified(lastModified);
+        assertFalse(index.isUnchanged(FILENAME, output, "hash-1"));
+
+        output.delete();
+        assertFalse(index.isUnchanged(FILENAME, output, "hash-1"));
+    }
+
+    @Test
+    public void persistsAcrossLoads() throws IOException
+    {
+        final DeployIndex index = DeployIndex.load(indexFile);
+        assertTrue(index.isPersistent());
+        assertEquals(0, index.size());
+        index.update(FILENAME, output, "hash-1");
+        index.save();
+        assertFalse(new File(tmp.getRoot(), DeployIndex.FILENAME + ".tmp").exists());
+
+        final DeployIndex loaded = DeployIndex.load(indexFile);
+        assertEquals(1, loaded.size());
+        assertEquals(output.length(), loaded.get(FILENAME).getSize());
+        assertEquals(output.lastModified(), loaded.get(FILENAME).getLastModified());
+        assertTrue(loaded.isUnchanged(FILENAME, output, "hash-1"));
+    }
+
+    @Test
+    public void skipsMalformedEntries() throws IOException
+    {
+        Files.write(indexFile.toPath(),
+                    ("good=hash-1 10 20\nshort=hash-1 10\nbad=hash-1 ten 20\n").getBytes(Charsets.ISO_8859_1));
+
+        final DeployIndex index = DeployIndex.load(indexFile);
+        assertEquals(1, index.size());
+        assertEquals("hash-1", index.get("good").getHash());
+        assertNull(index.get("short"));
+        assertNull(index.get("bad"));
+    }
+
+    @Test
+    public void inMemoryIndexIsNotSaved() throws IOException
+    {
+        final DeployIndex index = new DeployIndex();
+        assertFalse(index.isPersistent());
+        index.update(FILENAME, output, "hash-1");
+        index.save();
+        assertFalse(indexFile.exists());
+    }
+
+    private void write(String content) throws IOException
+    {
+        Files.write(output.toPath(), content.getBytes(Charsets.UTF_8));
+    }
+}
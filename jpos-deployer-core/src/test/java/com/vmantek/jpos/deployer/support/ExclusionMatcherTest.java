@@ -0,0 +1,112 @@
+package com.vmantek.jpos.deployer.support;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks {@link ExclusionMatcher} against matching every pattern with {@link AntPathMatcher},
+ * which it replaced.
+ */
+public class ExclusionMatcherTest
+{
+    private static final String PREFIX = "META-INF/q2-runtime/";
+    private static final String[] SEGMENTS = {"cfg", "deploy", "lib", "a", "a.b", "x.ks", ".ks", "ks", "*", "**",
+                                              "*.ks", "*.jks", "*s", "d?", "{x}", "", " ", "a b", "\n"};
+    private static final String[] PATTERNS = {"cfg/*.ks", "**/*.jks", "*.xml", "lib/**", "deploy/*_mux*.xml",
+                                              "**/*", "**", "*", "cfg/**/*.ks", "/cfg/*.ks", "cfg/", "d?/*.ks",
+                                              "**/*.{ks}", " cfg/*.ks", "cfg//*.ks"};
+
+    private final AntPathMatcher antPathMatcher = new AntPathMatcher();
+
+    @Test
+    public void matchesUsualShapes()
+    {
+        final ExclusionMatcher matcher = new ExclusionMatcher(
+            Arrays.asList("cfg/*.ks", "**/*.jks", "*.txt", "lib/**"), antPathMatcher);
+        assertTrue(matcher.matches("cfg/keys.ks"));
+        assertFalse(matcher.matches("cfg/sub/keys.ks"));
+        assertTrue(matcher.matches("deploy/deep/store.jks"));
+        assertTrue(matcher.matches("store.jks"));
+        assertTrue(matcher.matches("notes.txt"));
+        assertFalse(matcher.matches("cfg/notes.txt"));
+        assertTrue(matcher.matches("lib"));
+        assertTrue(matcher.matches("lib/a/b.jar"));
+        assertFalse(matcher.matches("library/b.jar"));
+        assertTrue(matcher.matches(PREFIX + "cfg/keys.ks", PREFIX.length()));
+        assertFalse(matcher.matches(PREFIX + "deploy/10_a.xml", PREFIX.length()));
+    }
+
+    @Test
+    public void matchesNothingWithoutPatterns()
+    {
+        final ExclusionMatcher matcher = new ExclusionMatcher(Collections.<String>emptyList(), antPathMatcher);
+        assertFalse(matcher.matches("cfg/keys.ks"));
+        assertFalse(matcher.matches(""));
+    }
+
+    @Test
+    public void agreesWithAntPathMatcherOnRandomInput()
+    {
+        final Random random = new Random(0x5eed);
+        for (int i = 0; i < 2000; i++)
+        {
+            final List<String> patterns = new ArrayList<>();
+            for (int n = random.nextInt(4); n >= 0; n--)
+            {
+                patterns.add(random.nextBoolean() ? PATTERNS[random.nextInt(PATTERNS.length)] : randomPath(random));
+            }
+            final ExclusionMatcher matcher = new ExclusionMatcher(patterns, antPathMatcher);
+            for (int j = 0; j < 50; j++)
+            {
+                final String path = randomPath(random);
+                final boolean expected = legacyMatches(patterns, path);
+                assertEquals(patterns + " on [" + path + "]", expected, matcher.matches(path));
+                assertEquals(patterns + " on [" + PREFIX + path + "]", expected,
+                             matcher.matches(PREFIX + path, PREFIX.length()));
+            }
+        }
+    }
+
+    private boolean legacyMatches(List<String> patterns, String path)
+    {
+        for (String pattern : patterns)
+        {
+            if (antPathMatcher.match(pattern, path))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String randomPath(Random random)
+    {
+        final StringBuilder sb = new StringBuilder();
+        if (random.nextInt(10) == 0)
+        {
+            sb.append('/');
+        }
+        for (int n = random.nextInt(4); n >= 0; n--)
+        {
+            if (sb.length() > 0 && sb.charAt(sb.length() - 1) != '/')
+            {
+                sb.append('/');
+            }
+            sb.append(SEGMENTS[random.nextInt(SEGMENTS.length)]);
+        }
+        if (random.nextInt(10) == 0)
+        {
+            sb.append('/');
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,78 @@
+package com.vmantek.jpos.deployer.support;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class LatencyHistogramTest
+{
+    private final LatencyHistogram histogram = new LatencyHistogram();
+
+    @Test
+    public void emptyHistogramIsAllZeros()
+    {
+        final LatencyHistogram.Snapshot s = histogram.snapshot();
+        assertEquals(0, s.getCount());
+        assertEquals(0, s.getMeanMicros());
+        assertEquals(0, s.getP50Micros());
+        assertEquals(0, s.getP99Micros());
+        assertEquals(0, s.getMaxMicros());
+    }
+
+    @Test
+    public void worksOutPercentilesFromBucketUpperBounds()
+    {
+        for (int i = 0; i < 90; i++)
+        {
+            histogram.record(1000);
+        }
+        for (int i = 0; i < 10; i++)
+        {
+            histogram.record(1000000);
+        }
+        final LatencyHistogram.Snapshot s = histogram.snapshot();
+        assertEquals(100, s.getCount());
+        assertEquals(10090, s.getTotalMicros());
+        assertEquals(100, s.getMeanMicros());
+        // 1000 ns falls in [512, 1023]
+        assertEquals(1, s.getP50Micros());
+        assertEquals(1, s.getP90Micros());
+        // [524288, 1048575], capped at the maximum recorded
+        assertEquals(1000, s.getP99Micros());
+        assertEquals(1000, s.getMaxMicros());
+    }
+
+    @Test
+    public void percentilesAreWithinAFactorOfTwo()
+    {
+        histogram.record(3000);
+        histogram.record(3000);
+        histogram.record(100000);
+        final LatencyHistogram.Snapshot s = histogram.snapshot();
+        // 3000 ns falls in [2048, 4095]
+        assertEquals(4, s.getP50Micros());
+        // 100000 ns falls in [65536, 131071], capped at the maximum recorded
+        assertEquals(100, s.getP99Micros());
+    }
+
+    @Test
+    public void recordsNegativeDurationsAsZero()
+    {
+        histogram.record(-5);
+        histogram.record(0);
+        final LatencyHistogram.Snapshot s = histogram.snapshot();
+        assertEquals(2, s.getCount());
+        assertEquals(0, s.getTotalMicros());
+        assertEquals(0, s.getP99Micros());
+    }
+
+    @Test
+    public void resetForgetsEverything()
+    {
+        histogram.record(5000);
+        histogram.reset();
+        final LatencyHistogram.Snapshot s = histogram.snapshot();
+        assertEquals(0, s.getCount());
+        assertEquals(0, s.getMaxMicros());
+    }
+}
@@ -0,0 +1,261 @@
+package com.vmantek.jpos.deployer.support;
+
+import com.google.common.base.Strings;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks {@link PlaceholderFilter} against the regex chain it replaced: {@code \$\{(.*?)\}}
+ * then {@code @@(.*?)@@}, both through {@link Matcher#appendReplacement}.
+ */
+public class PlaceholderFilterTest
+{
+    private static final Pattern pattern1 = Pattern.compile("\\$\\{(.*?)\\}");
+    private static final Pattern pattern2 = Pattern.compile("@@(.*?)@@");
+    private static final Pattern templatePattern = Pattern.compile("\\[/?[#@]|[$#]\\{");
+
+    private static final String[][] CASES = {
+        // document, then key=value pairs
+        {"", "a", "1"},
+        {"plain text", "a", "1"},
+        {"${a}", "a", "1"},
+        {"@@a@@", "a", "1"},
+        {"x${a}y@@b@@z", "a", "1", "b", "2"},
+        {"${missing} @@missing@@", "a", "1"},
+        {"${a}${a}${b}", "a", "1", "b", "2"},
+        {"$${a}", "a", "1"},
+        {"$$$", "a", "1"},
+        {"${", "a", "1"},
+        {"${a", "a", "1"},
+        {"@@", "a", "1"},
+        {"@@a", "a", "1"},
+        {"@@@a@@", "a", "1"},
+        {"@@a@@@", "a", "1"},
+        {"@@@@", "", "empty"},
+        {"${}", "", "empty"},
+        {"${a}}", "a", "1"},
+        {"${{a}", "{a", "1"},
+        {"${a\n}", "a", "1"},
+        {"${a}\n${b}", "a", "1", "b", "2"},
+        {"@@a\n@@b@@", "a", "1", "b", "2"},
+        {"@@a\r\n@@", "a", "1"},
+        {"${a\u0085}", "a", "1"},
+        {"${a\u2028}@@a\u2029@@", "a", "1"},
+        // values feeding the @@ stage
+        {"${a}b@@", "a", "@@", "b", "2"},
+        {"${a}", "a", "@@b@@", "b", "2"},
+        {"@@${a}@@", "a", "b", "b", "2"},
+        {"${a}", "a", "${b}", "b", "2"},
+        // replacement string semantics
+        {"${a}", "a", "\\$"},
+        {"${a}", "a", "c:\\\\dir"},
+        {"${a}", "a", "[$1]"},
+        {"${a}", "a", "[$0]"},
+        {"@@a@@", "a", "[$1|$0]"},
+        {"${a}", "a", "$10"},
+        {"${a}", "a", "$1$1"},
+        // FreeMarker detection
+        {"[#if x]y[/#if]", "a", "1"},
+        {"[@macro/]", "a", "1"},
+        {"${a}", "a", "[#list]"},
+        {"#{x}", "a", "1"},
+        {"${a}{", "a", "$"},
+        {"[ #", "a", "1"},
+    };
+
+    @Test
+    public void matchesLegacyChainOnTable()
+    {
+        for (String[] c : CASES)
+        {
+            final Map<String, String> props = new HashMap<>();
+            for (int i = 1; i < c.length; i += 2)
+            {
+                props.put(c[i], c[i + 1]);
+            }
+            assertSame(c[0], props, new Random(0));
+        }
+    }
+
+    @Test
+    public void invalidReplacementsFailLikeLegacyChain()
+    {
+        for (String value : new String[]{"\\", "$", "$x", "${name}", "$2", "a$"})
+        {
+            final Map<String, String> props = new HashMap<>();
+            props.put("a", value);
+            assertSame("${a}", props, new Random(0));
+            assertSame("@@a@@", props, new Random(0));
+        }
+    }
+
+    @Test
+    public void recordsUnresolvedKeys()
+    {
+        final Map<String, String> props = new HashMap<>();
+        props.put("a", "1");
+        final PlaceholderFilter filter = new PlaceholderFilter(props::get);
+        assertEquals("1 ${b} @@c@@", filter.filter("${a} ${b} @@c@@"));
+        assertEquals(set("a"), filter.getKeys());
+        assertEquals(set("b", "c"), filter.getUnresolvedKeys());
+        // FreeMarker gets its chance at what is left
+        assertTrue(filter.needsTemplate());
+    }
+
+    @Test
+    public void passesOverlongKeysThrough()
+    {
+        final String key = Strings.repeat("k", PlaceholderFilter.MAX_KEY_LENGTH + 1);
+        final Map<String, String> props = new HashMap<>();
+        props.put(key, "value");
+        props.put("a", "1");
+
+        for (String doc : new String[]{"${" + key + "}${a}", "@@" + key + "@@@@a@@", "${" + key + "\n${a}"})
+        {
+            final PlaceholderFilter filter = new PlaceholderFilter(props::get);
+            final String out = filter.filter(doc);
+            assertTrue(out, out.endsWith("1"));
+            assertTrue(out.contains(key));
+            assertEquals(set("a"), filter.getKeys());
+        }
+
+        // Keys up to the limit are still replaced
+        final String longest = Strings.repeat("k", PlaceholderFilter.MAX_KEY_LENGTH);
+        props.put(longest, "value");
+        assertSame("${" + longest + "}@@" + longest + "@@", props, new Random(0));
+    }
+
+    @Test
+    public void matchesLegacyChainOnRandomDocuments()
+    {
+        final Random random = new Random(0x5eed);
+        final String alphabet = "${}@ab\n\r\\1[#/ x";
+        for (int i = 0; i < 20000; i++)
+        {
+            final Map<String, String> props = new HashMap<>();
+            for (String key : new String[]{"a", "b", "ab", "", " "})
+            {
+                if (random.nextInt(3) > 0)
+                {
+                    props.put(key, randomText(random, alphabet, 6));
+                }
+            }
+            assertSame(randomText(random, alphabet, 40), props, random);
+        }
+    }
+
+    private static String randomText(Random random, String alphabet, int maxLength)
+    {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = random.nextInt(maxLength + 1); i > 0; i--)
+        {
+            sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Compares output, replaced keys, template detection and failures with the legacy
+     * chain, filtering the whole document at once and in random chunks.
+     */
+    private static void assertSame(String doc, Map<String, String> props, Random random)
+    {
+        final Set<String> legacyKeys = new HashSet<>();
+        String expected = null;
+        RuntimeException legacyError = null;
+        try
+        {
+            expected = legacyFilter(pattern2, legacyFilter(pattern1, doc, props, legacyKeys), props, legacyKeys);
+        }
+        catch (RuntimeException e)
+        {
+            legacyError = e;
+        }
+
+        final PlaceholderFilter filter = new PlaceholderFilter(props::get);
+        final PlaceholderFilter chunked = new PlaceholderFilter(props::get);
+        final StringBuilder chunks = new StringBuilder();
+        String actual = null;
+        try
+        {
+            actual = filter.filter(doc);
+            chunked.begin(chunks);
+            int off = 0;
+            while (off < doc.length())
+            {
+                final int len = Math.min(doc.length() - off, 1 + random.nextInt(5));
+                chunked.write(doc.toCharArray(), off, len);
+                off += len;
+            }
+            chunked.end();
+        }
+        catch (RuntimeException e)
+        {
+            if (legacyError == null)
+            {
+                throw new AssertionError("Unexpected failure for " + describe(doc, props), e);
+            }
+            assertEquals(describe(doc, props), legacyError.getClass(), e.getClass());
+            return;
+        }
+        catch (IOException e)
+        {
+            throw new AssertionError(e);
+        }
+        if (legacyError != null)
+        {
+            fail("Expected " + legacyError + " for " + describe(doc, props));
+        }
+        assertEquals(describe(doc, props), expected, actual);
+        assertEquals(describe(doc, props), expected, chunks.toString());
+        assertEquals(describe(doc, props), legacyKeys, filter.getKeys());
+        assertEquals(describe(doc, props), legacyKeys, chunked.getKeys());
+        assertEquals(describe(doc, props), templatePattern.matcher(expected).find(), filter.needsTemplate());
+        assertEquals(describe(doc, props), filter.needsTemplate(), chunked.needsTemplate());
+    }
+
+    private static String legacyFilter(Pattern pattern, String s, Map<String, String> props, Set<String> keys)
+    {
+        Matcher m = pattern.matcher(s);
+        StringBuffer sb = new StringBuffer(s.length() * 2);
+        while (m.find())
+        {
+            String key = m.group(1);
+            String val = props.get(key);
+            if (val != null)
+            {
+                m.appendReplacement(sb, val);
+                keys.add(key);
+            }
+        }
+        m.appendTail(sb);
+        return sb.toString();
+    }
+
+    private static String describe(String doc, Map<String, String> props)
+    {
+        return "document [" + doc + "] with " + props;
+    }
+
+    private static Set<String> set(String... keys)
+    {
+        final Set<String> set = new HashSet<>();
+        for (String key : keys)
+        {
+            set.add(key);
+        }
+        return set;
+    }
+}
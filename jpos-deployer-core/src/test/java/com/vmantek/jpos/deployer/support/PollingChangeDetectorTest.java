@@ -0,0 +1,88 @@
+package com.vmantek.jpos.deployer.support;
+
+import com.google.common.base.Charsets;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class PollingChangeDetectorTest
+{
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private final PollingChangeDetector detector = new PollingChangeDetector(20);
+    private final BlockingQueue<Path> changes = new LinkedBlockingQueue<>();
+
+    @After
+    public void tearDown()
+    {
+        detector.stop();
+    }
+
+    @Test
+    public void reportsModifiedCreatedAndDeletedSources() throws Exception
+    {
+        final Path existing = tmp.newFile("a.properties").toPath();
+        final Path missing = new File(tmp.getRoot(), "b.properties").toPath();
+        detector.start(Arrays.asList(existing, missing), (source, changedAt) -> changes.add(source));
+        assertNull(changes.poll(100, TimeUnit.MILLISECONDS));
+
+        write(existing, "a=1\n");
+        assertEquals(existing, changes.poll(5, TimeUnit.SECONDS));
+
+        write(missing, "b=1\n");
+        assertEquals(missing, changes.poll(5, TimeUnit.SECONDS));
+
+        Files.delete(existing);
+        assertEquals(existing, changes.poll(5, TimeUnit.SECONDS));
+        assertNull(changes.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void followsSymbolicLinkSwaps() throws Exception
+    {
+        // How a Kubernetes ConfigMap volume is updated
+        final Path first = tmp.newFolder("v1").toPath().resolve("config.properties");
+        final Path second = tmp.newFolder("v2").toPath().resolve("config.properties");
+        write(first, "a=1\n");
+        write(second, "a=2\n");
+        final Path link = new File(tmp.getRoot(), "config.properties").toPath();
+        Files.createSymbolicLink(link, first);
+        detector.start(Arrays.asList(link), (source, changedAt) -> changes.add(source));
+
+        final Path swap = new File(tmp.getRoot(), "swap").toPath();
+        Files.createSymbolicLink(swap, second);
+        Files.move(swap, link, StandardCopyOption.ATOMIC_MOVE);
+        assertEquals(link, changes.poll(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void stopsReporting() throws Exception
+    {
+        final Path source = tmp.newFile("a.properties").toPath();
+        detector.start(Arrays.asList(source), (s, changedAt) -> changes.add(s));
+        detector.stop();
+
+        write(source, "a=1\n");
+        assertNull(changes.poll(200, TimeUnit.MILLISECONDS));
+    }
+
+    private static void write(Path path, String text) throws IOException
+    {
+        Files.write(path, text.getBytes(Charsets.UTF_8));
+    }
+}
@@ -0,0 +1,38 @@
+package com.vmantek.jpos.deployer.support;
+
+import com.vmantek.jpos.deployer.simple.SimplePropertySnapshot;
+import freemarker.template.TemplateException;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class PropertyModelTest
+{
+    private final TemplateCache templateCache = new TemplateCache();
+
+    @Test
+    public void propertiesWinOverSnapshotGetters() throws IOException, TemplateException
+    {
+        final Map<String, String> config = new HashMap<>();
+        config.put("version", "1.2");
+        final PropertyModel model = new PropertyModel(new SimplePropertySnapshot(7, config),
+                                                      templateCache.getObjectWrapper());
+
+        assertEquals("1.2 none", render("${version} ${config!'none'}", model));
+        assertEquals(Collections.singleton("version"), model.getKeys());
+        assertEquals(Collections.singleton("config"), model.getUnresolvedKeys());
+    }
+
+    private String render(String doc, PropertyModel model) throws IOException, TemplateException
+    {
+        final StringWriter out = new StringWriter();
+        templateCache.getTemplate("test", doc).process(model, out);
+        return out.toString();
+    }
+}
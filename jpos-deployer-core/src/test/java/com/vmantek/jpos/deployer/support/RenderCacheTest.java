@@ -0,0 +1,95 @@
+package com.vmantek.jpos.deployer.support;
+
+import com.google.common.base.Charsets;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class RenderCacheTest
+{
+    private static final String RESOURCE = "META-INF/q2-runtime/deploy/10_channel.xml";
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private final Map<String, String> properties = new HashMap<>();
+    private File cacheFile;
+    private File output;
+    private RenderCache cache;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        cacheFile = new File(tmp.getRoot(), RenderCache.FILENAME);
+        output = tmp.newFile("10_channel.xml");
+        Files.write(output.toPath(), "<channel host=\"localhost\" />".getBytes(Charsets.UTF_8));
+        properties.put("host", "localhost");
+        cache = new RenderCache(cacheFile);
+        cache.update(RESOURCE, "source-1", output, Arrays.asList("host", "port"), properties::get);
+    }
+
+    @Test
+    public void keepsRendersWhoseInputsAndOutputAreUnchanged() throws IOException
+    {
+        assertEquals(new TreeSet<>(Arrays.asList("host", "port")), verify("source-1"));
+
+        cache.save();
+        cache = RenderCache.load(cacheFile);
+        assertEquals(new TreeSet<>(Arrays.asList("host", "port")), verify("source-1"));
+    }
+
+    @Test
+    public void invalidatedByAPropertyValueChange()
+    {
+        properties.put("host", "remote");
+        assertNull(verify("source-1"));
+        properties.put("host", "localhost");
+
+        // A property that was missing and now has a value counts as well
+        properties.put("port", "8000");
+        assertNull(verify("source-1"));
+    }
+
+    @Test
+    public void invalidatedByASourceFingerprintChange()
+    {
+        assertNull(verify("source-2"));
+        assertNull(verify(null));
+    }
+
+    @Test
+    public void invalidatedByAnExternalChangeOfTheOutput() throws IOException
+    {
+        final long lastModified = output.lastModified();
+        // Same size, later modification time
+        Files.write(output.toPath(), "<channel host=\"edited!!!\" />".getBytes(Charsets.UTF_8));
+        output.setLastModified(lastModified + 2000);
+        assertNull(verify("source-1"));
+
+        // Same modification time, different size
+        Files.write(output.toPath(), "<channel />".getBytes(Charsets.UTF_8));
+        output.setLastModified(lastModified);
+        assertNull(verify("source-1"));
+
+        output.delete();
+        assertNull(verify("source-1"));
+    }
+
+    private SortedSet<String> verify(String fingerprint)
+    {
+        return cache.verify(RESOURCE, fingerprint, output, properties::get);
+    }
+}
@@ -0,0 +1,111 @@
+package com.vmantek.jpos.deployer.support;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ResourceCopierTest
+{
+    private static final String ENTRY = "META-INF/q2-runtime/deploy/10_channel.xml";
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void jarEntriesAreFingerprintedByCrcAndSize() throws IOException
+    {
+        final String first = ResourceCopier.fingerprint(jarEntry("a.jar", bytes(100, 'a')));
+        assertTrue(first, first.startsWith("crc32:"));
+        assertTrue(first, first.endsWith(":100"));
+
+        // Where the jar lives and when it was built do not matter, the content does
+        assertEquals(first, ResourceCopier.fingerprint(jarEntry("b.jar", bytes(100, 'a'))));
+        assertNotEquals(first, ResourceCopier.fingerprint(jarEntry("c.jar", bytes(100, 'b'))));
+    }
+
+    @Test
+    public void filesAreFingerprintedBySizeAndModificationTime() throws IOException
+    {
+        final File file = tmp.newFile("10_channel.xml");
+        Files.write(file.toPath(), bytes(100, 'a'));
+        file.setLastModified(1000000000000L);
+        final URL url = file.toURI().toURL();
+        final String first = ResourceCopier.fingerprint(url);
+        assertEquals("file:100:1000000000000", first);
+
+        // Not read: only the size or the modification time tell a change
+        Files.write(file.toPath(), bytes(100, 'b'));
+        file.setLastModified(1000000000000L);
+        assertEquals(first, ResourceCopier.fingerprint(url));
+        file.setLastModified(1000000002000L);
+        assertNotEquals(first, ResourceCopier.fingerprint(url));
+        Files.write(file.toPath(), bytes(101, 'b'));
+        file.setLastModified(1000000000000L);
+        assertNotEquals(first, ResourceCopier.fingerprint(url));
+    }
+
+    @Test
+    public void copiesFilesOverLongerTargets() throws IOException
+    {
+        final File file = tmp.newFile("10_channel.xml");
+        final byte[] content = bytes(200 * 1024, 'a');
+        Files.write(file.toPath(), content);
+
+        assertCopies(file.toURI().toURL(), content, false);
+        assertCopies(file.toURI().toURL(), content, true);
+    }
+
+    @Test
+    public void copiesJarEntriesOverLongerTargets() throws IOException
+    {
+        // Larger than the copy buffer
+        final byte[] content = bytes(200 * 1024, 'a');
+        final URL url = jarEntry("a.jar", content);
+
+        assertCopies(url, content, false);
+        assertCopies(url, content, true);
+    }
+
+    private void assertCopies(URL source, byte[] content, boolean preallocate) throws IOException
+    {
+        final Path target = tmp.newFile().toPath();
+        Files.write(target, bytes(content.length + 1000, 'x'));
+
+        assertEquals(content.length, ResourceCopier.copy(source, target, preallocate));
+        assertArrayEquals(content, Files.readAllBytes(target));
+    }
+
+    private URL jarEntry(String name, byte[] content) throws IOException
+    {
+        final File jar = new File(tmp.getRoot(), name);
+        try (JarOutputStream out = new JarOutputStream(new FileOutputStream(jar)))
+        {
+            out.putNextEntry(new JarEntry(ENTRY));
+            out.write(content);
+            out.closeEntry();
+        }
+        return new URL("jar:" + jar.toURI() + "!/" + ENTRY);
+    }
+
+    private static byte[] bytes(int length, char c)
+    {
+        final byte[] bytes = new byte[length];
+        Arrays.fill(bytes, (byte) c);
+        return bytes;
+    }
+}
@@ -0,0 +1,153 @@
+package com.vmantek.jpos.deployer.support;
+
+import com.google.common.base.Charsets;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ResourceIndexTest
+{
+    private static final String PREFIX = "META-INF/q2-runtime";
+    private static final String HEADER = "# exclusions=cfg/*.ks\n";
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void returnsNullWithoutAnyIndex() throws IOException
+    {
+        final File plain = dir("plain", PREFIX + "/deploy/10_a.xml");
+        assertNull(ResourceIndex.load(loader(plain)));
+    }
+
+    @Test
+    public void isCompleteWhenEveryElementIsIndexed() throws IOException
+    {
+        final File indexed = dir("indexed", PREFIX + "/deploy/10_a.xml");
+        index(indexed, PREFIX + "/deploy/10_a.xml");
+        final File jar = jar("archive.jar", PREFIX + "/deploy/20_b.xml");
+
+        final ClassLoader cl = loader(indexed, jar);
+        final ResourceIndex index = ResourceIndex.load(cl);
+        assertTrue(index.isComplete(cl, PREFIX));
+        assertEquals(Arrays.asList(PREFIX + "/deploy/10_a.xml", PREFIX + "/deploy/20_b.xml"), index.getResources());
+    }
+
+    @Test
+    public void scansElementsWithoutIndex() throws IOException
+    {
+        final File indexed = dir("indexed", PREFIX + "/deploy/10_a.xml");
+        index(indexed, PREFIX + "/deploy/10_a.xml");
+        final File plain = dir("plain", PREFIX + "/deploy/20_b.xml");
+
+        final ClassLoader cl = loader(indexed, plain);
+        final ResourceIndex index = ResourceIndex.load(cl);
+        assertFalse(index.isComplete(cl, PREFIX));
+
+        index.merge(Arrays.asList(PREFIX + "/deploy/10_a.xml", PREFIX + "/deploy/20_b.xml"), cl);
+        assertEquals(Arrays.asList(PREFIX + "/deploy/10_a.xml", PREFIX + "/deploy/20_b.xml"), index.getResources());
+        assertNotNull(index.get(PREFIX + "/deploy/10_a.xml"));
+        assertNull(index.get(PREFIX + "/deploy/20_b.xml"));
+    }
+
+    @Test
+    public void dropsEntriesShadowedByElementsWithoutIndex() throws IOException
+    {
+        final File plain = dir("plain", PREFIX + "/deploy/10_a.xml");
+        final File indexed = dir("indexed", PREFIX + "/deploy/10_a.xml");
+        index(indexed, PREFIX + "/deploy/10_a.xml");
+
+        final ClassLoader cl = loader(plain, indexed);
+        final ResourceIndex index = ResourceIndex.load(cl);
+        index.merge(Arrays.asList(PREFIX + "/deploy/10_a.xml"), cl);
+        assertEquals(Arrays.asList(PREFIX + "/deploy/10_a.xml"), index.getResources());
+        assertNull(index.get(PREFIX + "/deploy/10_a.xml"));
+    }
+
+    @Test
+    public void onlyTrustsHashesOfArchives() throws IOException
+    {
+        final File indexed = dir("indexed", PREFIX + "/deploy/10_a.xml");
+        index(indexed, PREFIX + "/deploy/10_a.xml");
+        final File jar = jar("archive.jar", PREFIX + "/deploy/20_b.xml");
+
+        final ResourceIndex index = ResourceIndex.load(loader(indexed, jar));
+        assertFalse(index.get(PREFIX + "/deploy/10_a.xml").isArchived());
+        assertTrue(index.get(PREFIX + "/deploy/20_b.xml").isArchived());
+        assertTrue(index.get(PREFIX + "/deploy/20_b.xml").isFilterable());
+        assertTrue(index.isFilterableFlagValid(Arrays.asList("cfg/*.ks")));
+        assertFalse(index.isFilterableFlagValid(Arrays.asList("cfg/*.jks")));
+    }
+
+    private File dir(String name, String... resources) throws IOException
+    {
+        final File dir = tmp.newFolder(name);
+        for (String resource : resources)
+        {
+            final File file = new File(dir, resource);
+            file.getParentFile().mkdirs();
+            Files.write(file.toPath(), resource.getBytes(Charsets.UTF_8));
+        }
+        return dir;
+    }
+
+    private void index(File dir, String... resources) throws IOException
+    {
+        final File file = new File(dir, ResourceIndex.INDEX_NAME);
+        Files.write(file.toPath(), indexText(resources).getBytes(Charsets.UTF_8));
+    }
+
+    private File jar(String name, String... resources) throws IOException
+    {
+        final File jar = new File(tmp.getRoot(), name);
+        try (JarOutputStream out = new JarOutputStream(new FileOutputStream(jar)))
+        {
+            out.putNextEntry(new JarEntry("META-INF/"));
+            out.putNextEntry(new JarEntry(PREFIX + "/"));
+            out.putNextEntry(new JarEntry(ResourceIndex.INDEX_NAME));
+            out.write(indexText(resources).getBytes(Charsets.UTF_8));
+            for (String resource : resources)
+            {
+                out.putNextEntry(new JarEntry(resource));
+                out.write(resource.getBytes(Charsets.UTF_8));
+            }
+        }
+        return jar;
+    }
+
+    private static String indexText(String... resources)
+    {
+        final StringBuilder sb = new StringBuilder(HEADER);
+        for (String resource : resources)
+        {
+            sb.append(resource).append('\t').append(resource.length()).append("\tcafe\ttrue\n");
+        }
+        return sb.toString();
+    }
+
+    private static ClassLoader loader(File... elements) throws IOException
+    {
+        final URL[] urls = new URL[elements.length];
+        for (int i = 0; i < elements.length; i++)
+        {
+            urls[i] = elements[i].toURI().toURL();
+        }
+        return new URLClassLoader(urls, null);
+    }
+}
@@ -0,0 +1,109 @@
+package com.vmantek.jpos.deployer.support;
+
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.Multimap;
+import com.vmantek.jpos.deployer.spi.PropertyResolver;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ResourceKeyIndexTest
+{
+    private final PropertyResolver resolver = new PropertyResolver()
+    {
+        @Override
+        public void initialize()
+        {
+        }
+
+        @Override
+        public String getProperty(String key)
+        {
+            return null;
+        }
+
+        @Override
+        public boolean isMutable(String key)
+        {
+            return true;
+        }
+
+        @Override
+        public Set<String> scanPropertyChanges(Multimap<String, String> m)
+        {
+            return Collections.emptySet();
+        }
+
+        @Override
+        public Set<String> getTrackedSources()
+        {
+            return Collections.emptySet();
+        }
+    };
+
+    @Test
+    public void keepsReverseMappingInStep()
+    {
+        final ResourceKeyIndex index = new ResourceKeyIndex();
+        index.putAll("r1", Arrays.asList("a", "b"));
+        index.put("r2", "b");
+        assertEquals(set("r1", "r2"), index.getResources("b"));
+
+        index.removeAll("r1");
+        assertEquals(set("r2"), index.getResources("b"));
+        assertTrue(index.getResources("a").isEmpty());
+
+        index.replaceValues("r2", Arrays.asList("c"));
+        assertEquals(set("r2"), index.getResources(Arrays.asList("a", "b", "c")));
+        assertTrue(index.getResources("b").isEmpty());
+
+        index.clear();
+        assertTrue(index.getResources("c").isEmpty());
+        assertTrue(index.isEmpty());
+    }
+
+    @Test
+    public void findsTheSameResourcesAsAnInvertedMultimap()
+    {
+        final Random random = new Random(42);
+        for (int round = 0; round < 200; round++)
+        {
+            final ResourceKeyIndex index = new ResourceKeyIndex();
+            final Multimap<String, String> plain = HashMultimap.create();
+            for (int i = 0; i < 50; i++)
+            {
+                final String resource = "r" + random.nextInt(20);
+                final String key = "k" + random.nextInt(30);
+                if (random.nextInt(5) == 0)
+                {
+                    index.removeAll(resource);
+                    plain.removeAll(resource);
+                }
+                else
+                {
+                    index.put(resource, key);
+                    plain.put(resource, key);
+                }
+            }
+            final Set<String> changed = new HashSet<>();
+            for (int i = random.nextInt(10); i > 0; i--)
+            {
+                changed.add("k" + random.nextInt(30));
+            }
+            assertEquals(resolver.calculateAffectedResources(changed, plain),
+                         resolver.calculateAffectedResources(changed, index));
+        }
+    }
+
+    private static Set<String> set(String... values)
+    {
+        return new HashSet<>(Arrays.asList(values));
+    }
+}
@@ -0,0 +1,69 @@
+package com.vmantek.jpos.deployer.support;
+
+import com.google.common.base.Charsets;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class StagedBatchTest
+{
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void commitsByTierThenFileName() throws IOException
+    {
+        final File out = tmp.newFolder("out");
+        final StagingArea staging = new StagingArea(new File(out, ".q2-staging"), 1024);
+        final StagedBatch<String> batch = new StagedBatch<>();
+        for (String name : new String[]{"20_b.xml", "10_a.xml", "00_mux.xml", "missing/30_c.xml"})
+        {
+            batch.add(name, stage(staging, out, name));
+        }
+
+        final List<String> committed = new ArrayList<>();
+        final List<String> failed = new ArrayList<>();
+        batch.commit(name -> name.contains("mux") ? 1 : 0, new StagedBatch.Listener<String>()
+        {
+            @Override
+            public void committed(StagedBatch.StagedFile<String> file, long nanos)
+            {
+                committed.add(file.getState());
+            }
+
+            @Override
+            public void failed(StagedBatch.StagedFile<String> file, IOException error)
+            {
+                failed.add(file.getState());
+            }
+        });
+
+        assertEquals(Arrays.asList("10_a.xml", "20_b.xml", "00_mux.xml"), committed);
+        assertEquals(Arrays.asList("missing/30_c.xml"), failed);
+        assertEquals("10_a.xml", new String(Files.readAllBytes(new File(out, "10_a.xml").toPath()), Charsets.UTF_8));
+        assertEquals(0, staging.getDir().list().length);
+        assertFalse(new File(out, "missing").exists());
+    }
+
+    private static StagedBatch.StagedFile<String> stage(StagingArea staging, File out, String name) throws IOException
+    {
+        final Path staged = staging.create();
+        try (Writer writer = staging.newWriter(staging.open(staged)))
+        {
+            writer.write(name);
+        }
+        return new StagedBatch.StagedFile<>(staged, new File(out, name), name, "", name);
+    }
+}
@@ -0,0 +1,80 @@
+package com.vmantek.jpos.deployer.support;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+public class StagingAreaTest
+{
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private File out;
+    private StagingArea staging;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        out = tmp.newFolder("out");
+        assumeTrue(Files.getFileAttributeView(out.toPath(), PosixFileAttributeView.class) != null);
+        staging = new StagingArea(new File(out, ".q2-staging"), 1024);
+    }
+
+    @Test
+    public void newFileGetsTheDefaultPermissions() throws IOException
+    {
+        final File plain = new File(out, "plain.xml");
+        new FileOutputStream(plain).close();
+
+        final File deployed = new File(out, "10_new.xml");
+        StagingArea.commit(staging.create(), deployed);
+
+        assertEquals(permissions(plain), permissions(deployed));
+    }
+
+    @Test
+    public void replacedFileKeepsItsPermissions() throws IOException
+    {
+        final File deployed = new File(out, "10_existing.xml");
+        new FileOutputStream(deployed).close();
+        final Set<PosixFilePermission> custom = PosixFilePermissions.fromString("rw-rw----");
+        Files.setPosixFilePermissions(deployed.toPath(), custom);
+
+        StagingArea.commit(staging.create(), deployed);
+
+        assertEquals(custom, permissions(deployed));
+    }
+
+    @Test
+    public void replacedFileAlwaysGetsALaterModificationTime() throws IOException
+    {
+        final File deployed = new File(out, "10_existing.xml");
+        new FileOutputStream(deployed).close();
+        // As if Q2 had deployed it within the same clock tick as the rewrite
+        final long previous = System.currentTimeMillis() / 1000 * 1000 + 60000;
+        deployed.setLastModified(previous);
+
+        StagingArea.commit(staging.create(), deployed);
+
+        assertTrue(deployed.lastModified() > previous);
+    }
+
+    private static Set<PosixFilePermission> permissions(File file) throws IOException
+    {
+        return Files.getPosixFilePermissions(file.toPath());
+    }
+}
@@ -0,0 +1,65 @@
+package com.vmantek.jpos.deployer;
+
+import com.google.common.collect.Multimap;
+import com.vmantek.jpos.deployer.spi.PropertyResolver;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Resolver over a map the caller changes directly; a scan reports the keys changed since
+ * the previous one. Shared by the tests and the benchmarks.
+ */
+public class MapPropertyResolver implements PropertyResolver
+{
+    final Map<String, String> properties;
+    private Map<String, String> scanned = new HashMap<>();
+
+    public MapPropertyResolver()
+    {
+        this(new HashMap<>());
+    }
+
+    /**
+     * @param properties the map resolved against, read on every lookup
+     */
+    public MapPropertyResolver(Map<String, String> properties)
+    {
+        this.properties = properties;
+    }
+
+    @Override
+    public void initialize()
+    {
+        scanned = new HashMap<>(properties);
+    }
+
+    @Override
+    public String getProperty(String key)
+    {
+        return properties.get(key);
+    }
+
+    @Override
+    public boolean isMutable(String key)
+    {
+        return true;
+    }
+
+    @Override
+    public Set<String> scanPropertyChanges(Multimap<String, String> m)
+    {
+        final Map<String, String> current = new HashMap<>(properties);
+        final Set<String> affected = calculateAffectedResources(scanned, current, m);
+        scanned = current;
+        return affected;
+    }
+
+    @Override
+    public Set<String> getTrackedSources()
+    {
+        return Collections.emptySet();
+    }
+}